@@ -0,0 +1,462 @@
+package com.uc3m.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import com.uc3m.main.MIDIEvo;
+import com.uc3m.main.MIDIEvoEngine;
+import com.uc3m.main.MIDIEvoFitnessKernel;
+import com.uc3m.main.MIDIEvoMidiFile;
+import com.uc3m.main.MIDIEvoMidiWriter;
+import com.uc3m.main.MIDIEvoPopulation;
+import com.uc3m.main.MIDIEvoRandom;
+import com.uc3m.main.MIDIEvoTrack;
+
+/**
+ * Benchmarks of the evolutionary operators (hand-written harness, no dependencies).
+ * The reference benchmarks are the JMH ones (jmh source folder, MIDIEvoJmhBenchmark,
+ * mvn -Pjmh package), this harness is kept for quick checks such as maxalloc.
+ * Runs every benchmark for every combination of the parameters over a synthetic
+ * original track and reports throughput, time per operation and allocation
+ * (bytes per operation and MB/s, from the thread allocation counter).
+ *
+ * Every combination runs in its own JVM (fork=1), started with the same JVM options
+ * and class path, so the JIT profile and the heap of one benchmark don't change the
+ * next one; fork=N runs it in N JVMs (one row each) and fork=0 runs everything in
+ * this JVM. Every operation returns a result that is consumed (xor) and published
+ * to a volatile field after every iteration, so the JIT can't drop the work.
+ *
+ * Parameters (key=value, lists separated by commas):
+ *   population=8000  rounds=3000  notes=100,1000  mode=EASY,HARD  threads=1
+ *   bench=tournament,recombine,recombination,mutation,calculateFitness,scalarFitness,trackFitness,
+ *         replacement,amr,evolve,preprocessTrack,converge,convergeGuided,readSequence,readMidiFile,
+ *         writeSequence,writeMidiFile
+ *   warmup=5  iterations=10  time=1000 (ms per iteration)  seed=42
+ *   fork=1 (JVMs per combination, 0 = this JVM)  header=true (print the kernel and the columns)
+ *   maxalloc=-1 (fail if a benchmark allocates more bytes per operation, -1 = no check)
+ *   generations=100000 (max generations of a converge run)
+ *
+ * Allocation is only counted on the benchmark thread, use threads=1 to measure it.
+ * The steady state generation loop must not allocate:
+ *   java -cp bin com.uc3m.bench.MIDIEvoBenchmark bench=evolve,tournament,recombination,mutation,replacement maxalloc=0
+ *
+ * Full fitness of one individual: calculateFitness uses the default kernel (vector if it's
+ * available), scalarFitness the scalar loop and trackFitness the MIDIEvoTrack (ArrayList) path.
+ * Long tracks need a small population:
+ *   java --add-modules jdk.incubator.vector -cp bin com.uc3m.bench.MIDIEvoBenchmark population=100 rounds=100
+ *     notes=100,1000,10000,100000 mode=HARD bench=trackFitness,scalarFitness,calculateFitness
+ *
+ * converge and convergeGuided evolve a new population until the fitness is zero (one run per
+ * operation, normal and guided mutation) and also report the generations to zero:
+ *   java -cp bin com.uc3m.bench.MIDIEvoBenchmark population=1000 rounds=500 notes=100 mode=EASY
+ *     bench=converge,convergeGuided warmup=0 iterations=3
+ *
+ * readSequence and readMidiFile read the original track from a MIDI file (written to a temporary
+ * file) with javax.sound.midi (whole Sequence) and with the mapped parser (MIDIEvoMidiFile):
+ *   java -cp bin com.uc3m.bench.MIDIEvoBenchmark population=100 rounds=100 notes=1000,100000 mode=EASY
+ *     bench=readSequence,readMidiFile
+ *
+ * writeSequence and writeMidiFile write the best individual to a temporary MIDI file with
+ * javax.sound.midi (toTrack, convertToTrack and MidiSystem.write) and with MIDIEvoMidiWriter:
+ *   java -cp bin com.uc3m.bench.MIDIEvoBenchmark population=100 rounds=100 notes=1000,100000 mode=EASY
+ *     bench=writeSequence,writeMidiFile
+ *
+ * Example:
+ *   java -cp bin com.uc3m.bench.MIDIEvoBenchmark notes=100,1000 mode=EASY,HARD bench=evolve
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoBenchmark {
+
+	private static final String[] BENCHMARKS = {"tournament", "recombine", "recombination", "mutation",
+		"calculateFitness", "scalarFitness", "trackFitness", "replacement", "amr", "evolve", "preprocessTrack",
+		"converge", "convergeGuided", "readSequence", "readMidiFile", "writeSequence", "writeMidiFile"};
+	private static final com.sun.management.ThreadMXBean threadBean =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static volatile long blackhole;	//Results of the operations (never read)
+
+	private Map<String, String> params = new LinkedHashMap<String, String>();
+
+	/**
+	 * Operation to measure
+	 */
+	public interface Operation {
+		/**
+		 * @return result of the operation (consumed by the benchmark)
+		 */
+		long run();
+	}
+
+	public MIDIEvoBenchmark(String[] args){
+		params.put("population", "8000");
+		params.put("rounds", "3000");
+		params.put("notes", "100,1000");
+		params.put("mode", "EASY,HARD");
+		params.put("threads", "1");
+		params.put("bench", join(BENCHMARKS));
+		params.put("warmup", "5");
+		params.put("iterations", "10");
+		params.put("time", "1000");
+		params.put("seed", "42");
+		params.put("maxalloc", "-1");
+		params.put("generations", "100000");
+		params.put("fork", "1");
+		params.put("header", "true");
+		for(String arg : args){
+			int eq = arg.indexOf('=');
+			if(eq < 0 || !params.containsKey(arg.substring(0, eq)))
+				throw new IllegalArgumentException("Unknown parameter: "+arg);
+			params.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+	}
+
+	/**
+	 * Run every benchmark for every combination of the parameters
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	public void run() throws InvalidMidiDataException, IOException, InterruptedException{
+		if(Boolean.parseBoolean(params.get("header"))){
+			System.out.println("Fitness kernel: "+MIDIEvoFitnessKernel.get().getName());
+			System.out.println(String.format(Locale.ROOT, "%-18s %6s %6s %6s %5s %3s %14s %12s %14s %10s",
+					"Benchmark", "pop", "rounds", "notes", "mode", "thr",
+					"ops/s", "us/op", "B/op", "MB/s"));
+		}
+		int forks = Integer.parseInt(params.get("fork"));
+		for(int population : ints("population"))
+			for(int rounds : ints("rounds"))
+				for(int notes : ints("notes"))
+					for(String mode : list("mode"))
+						for(int threads : ints("threads"))
+							for(String bench : list("bench")){
+								if(forks <= 0)
+									run(bench, population, rounds, notes, mode, threads);
+								for(int i = 0; i < forks; i++)
+									fork(bench, population, rounds, notes, mode, threads);
+							}
+	}
+
+	/**
+	 * Run one combination in a new JVM (same JVM options and class path) and wait for it
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void fork(String bench, int populationSize, int rounds, int notes, String modeName,
+			int threads) throws IOException, InterruptedException{
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(MIDIEvoBenchmark.class.getName());
+		for(Map.Entry<String, String> param : params.entrySet())
+			command.add(param.getKey()+"="+param.getValue());
+		command.add("bench="+bench);
+		command.add("population="+populationSize);
+		command.add("rounds="+rounds);
+		command.add("notes="+notes);
+		command.add("mode="+modeName);
+		command.add("threads="+threads);
+		command.add("fork=0");
+		command.add("header=false");
+		int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if(exit != 0)
+			throw new IllegalStateException(bench+" failed in the forked JVM (exit code "+exit+")");
+	}
+
+	private void run(String bench, int populationSize, int rounds, int notes, String modeName,
+			int threads) throws InvalidMidiDataException, IOException{
+		int mode = modeName.equalsIgnoreCase("HARD") ? MIDIEvo.HARD_MODE : MIDIEvo.EASY_MODE;
+		final Track track = syntheticTrack(notes);
+		final MIDIEvoTrack original = new MIDIEvoTrack(track);
+		final MIDIEvoEngine engine = new MIDIEvoEngine(original, populationSize, rounds,
+				mode, MIDIEvo.STRATEGY_NONE, threads, Long.parseLong(params.get("seed")));
+		engine.initialize();
+		engine.evolve();
+		final MIDIEvoPopulation population = engine.getPopulation();
+		final MIDIEvoRandom random = new MIDIEvoRandom(Long.parseLong(params.get("seed")));
+		final int offspringSize = rounds / 2;
+		//Result of the operations that only change the population
+		final Operation best = new Operation(){
+			public long run(){ return population.getFitness(population.getBest()); }
+		};
+
+		Operation op;
+		switch(bench){
+		case "tournament":
+			op = new Operation(){ public long run(){ engine.tournament(); return best.run(); } };
+			break;
+		case "recombine":
+			op = new Operation(){
+				int child = 0;
+				public long run(){
+					engine.recombine(child, random.nextInt(population.getSize()),
+							random.nextInt(population.getSize()), random);
+					child = (child + 1) % offspringSize;
+					return best.run();
+				}
+			};
+			break;
+		case "recombination":
+			op = new Operation(){ public long run(){ engine.recombination(); return best.run(); } };
+			break;
+		case "mutation":
+			op = new Operation(){ public long run(){ engine.mutation(); return best.run(); } };
+			break;
+		case "calculateFitness":
+			op = new Operation(){
+				int ind = 0;
+				public long run(){
+					long fitness = population.calculateFitness(ind);
+					ind = (ind + 1) % population.getSize();
+					return fitness;
+				}
+			};
+			break;
+		case "scalarFitness":
+			final MIDIEvoPopulation scalar = new MIDIEvoPopulation(1, original);
+			scalar.setFitnessKernel(MIDIEvoFitnessKernel.scalar());
+			scalar.copy(0, population, population.getBest());
+			op = new Operation(){ public long run(){ return scalar.calculateFitness(0); } };
+			break;
+		case "trackFitness":
+			final MIDIEvoTrack individual = population.toTrack(population.getBest());
+			op = new Operation(){ public long run(){ return individual.calculateFitness(original, true); } };
+			break;
+		case "replacement":
+			op = new Operation(){ public long run(){ engine.replacement(); return best.run(); } };
+			break;
+		case "amr":
+			op = new Operation(){ public long run(){ return engine.evaluteMutationRate() ? 1 : 0; } };
+			break;
+		case "evolve":
+			op = new Operation(){ public long run(){ engine.evolve(); return best.run(); } };
+			break;
+		case "preprocessTrack":
+			op = new Operation(){ public long run(){ return new MIDIEvoTrack(track).getMaxSize(); } };
+			break;
+		case "converge":
+		case "convergeGuided":
+			op = new Convergence(original, populationSize, rounds, mode, threads,
+					bench.equals("convergeGuided"));
+			break;
+		case "readSequence":
+		case "readMidiFile":
+			final File file = syntheticFile(track);
+			final boolean sequence = bench.equals("readSequence");
+			op = new Operation(){ public long run(){
+				try {
+					if(sequence)
+						return new MIDIEvoTrack(MidiSystem.getSequence(file).getTracks()[0]).getMaxSize();
+					else
+						return new MIDIEvoTrack(MIDIEvoMidiFile.read(file, 0)).getMaxSize();
+				} catch (InvalidMidiDataException | IOException e) {
+					throw new IllegalStateException(e);
+				}
+			} };
+			break;
+		case "writeSequence":
+		case "writeMidiFile":
+			final File output = File.createTempFile("midievo", ".mid");
+			output.deleteOnExit();
+			final MIDIEvoMidiWriter writer = bench.equals("writeMidiFile") ? new MIDIEvoMidiWriter() : null;
+			op = new Operation(){ public long run(){
+				try {
+					if(writer != null){
+						writer.write(population, population.getBest(), Sequence.PPQ, 24, output);
+						return output.length();
+					}else{
+						Sequence sequence = new Sequence(Sequence.PPQ, 24);
+						population.toTrack(population.getBest()).convertToTrack(sequence);
+						return MidiSystem.write(sequence, 1, output);
+					}
+				} catch (InvalidMidiDataException | IOException e) {
+					throw new IllegalStateException(e);
+				}
+			} };
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown benchmark: "+bench);
+		}
+
+		long time = Long.parseLong(params.get("time")) * 1000000L;
+		for(int i = 0; i < Integer.parseInt(params.get("warmup")); i++)
+			measure(op, time);
+
+		long ops = 0, nanos = 0, bytes = 0;
+		for(int i = 0; i < Integer.parseInt(params.get("iterations")); i++){
+			long[] result = measure(op, time);
+			ops += result[0];
+			nanos += result[1];
+			bytes += result[2];
+		}
+		engine.shutdown();
+
+		double seconds = nanos / 1e9;
+		System.out.println(String.format(Locale.ROOT, "%-18s %6d %6d %6d %5s %3d %14.2f %12.3f %14.1f %10.2f",
+				bench, populationSize, rounds, notes, modeName, threads,
+				ops / seconds, nanos / 1e3 / ops, (double) bytes / ops, bytes / 1e6 / seconds));
+		if(op instanceof Convergence){
+			Convergence runs = (Convergence) op;
+			System.out.println(String.format(Locale.ROOT, "%-18s generations to zero: %.1f (solved %d of %d runs)",
+					"", (double) runs.generations / runs.runs, runs.solved, runs.runs));
+		}
+		long maxAlloc = Long.parseLong(params.get("maxalloc"));
+		//Whole bytes per operation (the measurement itself allocates a few bytes per iteration)
+		if(maxAlloc >= 0 && bytes / ops > maxAlloc)
+			throw new IllegalStateException(bench+" allocates "+((double) bytes / ops)
+					+" bytes per operation (max "+maxAlloc+")");
+	}
+
+	/**
+	 * Evolve a new population until the fitness is zero (or the max generations)
+	 */
+	private class Convergence implements Operation {
+
+		private MIDIEvoTrack original;
+		private int populationSize;
+		private int rounds;
+		private int mode;
+		private int threads;
+		private boolean guided;
+		private long runs = 0;			//Runs done
+		private long generations = 0;	//Generations of every run
+		private long solved = 0;		//Runs that reached fitness zero
+
+		public Convergence(MIDIEvoTrack original, int populationSize, int rounds, int mode, int threads,
+				boolean guided){
+			this.original = original;
+			this.populationSize = populationSize;
+			this.rounds = rounds;
+			this.mode = mode;
+			this.threads = threads;
+			this.guided = guided;
+		}
+
+		@Override
+		public long run(){
+			//Every run has its own seed, the same for normal and guided mutation
+			MIDIEvoEngine engine = new MIDIEvoEngine(original, populationSize, rounds, mode,
+					MIDIEvo.STRATEGY_NONE, threads, Long.parseLong(params.get("seed")) + runs);
+			engine.setGuidedMutation(guided);
+			engine.initialize();
+			MIDIEvoPopulation population = engine.getPopulation();
+			int max = Integer.parseInt(params.get("generations"));
+			while(population.getFitness(population.getBest()) > 0 && engine.getGeneration() < max)
+				engine.evolve();
+			engine.shutdown();
+			runs++;
+			generations += engine.getGeneration();
+			if(population.getFitness(population.getBest()) == 0)
+				solved++;
+			return engine.getGeneration();
+		}
+	}
+
+	/**
+	 * Run an operation for some time (its results are consumed)
+	 * @param op	Operation
+	 * @param time	Nanoseconds
+	 * @return {operations, nanoseconds, allocated bytes}
+	 */
+	private long[] measure(Operation op, long time){
+		long thread = Thread.currentThread().getId();
+		long ops = 0;
+		long sink = 0;
+		long bytes = threadBean.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long end;
+		do{
+			sink ^= op.run();
+			ops++;
+			end = System.nanoTime();
+		}while(end - start < time);
+		bytes = threadBean.getThreadAllocatedBytes(thread) - bytes;
+		blackhole = sink;
+		return new long[]{ops, end - start, bytes};
+	}
+
+	/**
+	 * Synthetic original track: notes/2 NOTE_ON/NOTE_OFF pairs with random keys
+	 * @param notes	Number of short messages
+	 * @return MIDI Track
+	 * @throws InvalidMidiDataException
+	 */
+	public static Track syntheticTrack(int notes) throws InvalidMidiDataException{
+		Sequence sequence = new Sequence(Sequence.PPQ, 24);
+		Track track = sequence.createTrack();
+		MIDIEvoRandom random = new MIDIEvoRandom(notes);
+		ShortMessage program = new ShortMessage();
+		program.setMessage(ShortMessage.PROGRAM_CHANGE, 0, 1, 0);
+		track.add(new MidiEvent(program, 0));
+		for(int i = 0; i < notes; i += 2){
+			int key = random.nextInt(36, 96);
+			ShortMessage on = new ShortMessage();
+			on.setMessage(ShortMessage.NOTE_ON, 0, key, 80);
+			track.add(new MidiEvent(on, i * 6L));
+			ShortMessage off = new ShortMessage();
+			off.setMessage(ShortMessage.NOTE_OFF, 0, key, 0);
+			track.add(new MidiEvent(off, i * 6L + 10));
+		}
+		return track;
+	}
+
+	/**
+	 * Write a track to a temporary MIDI file (deleted on exit)
+	 * @param track
+	 * @return file
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	public static File syntheticFile(Track track) throws InvalidMidiDataException, IOException{
+		Sequence sequence = new Sequence(Sequence.PPQ, 24);
+		Track copy = sequence.createTrack();
+		for(int i = 0; i < track.size(); i++)
+			copy.add(track.get(i));
+		File file = File.createTempFile("midievo", ".mid");
+		file.deleteOnExit();
+		MidiSystem.write(sequence, 0, file);
+		return file;
+	}
+
+	private ArrayList<String> list(String key){
+		return new ArrayList<String>(Arrays.asList(params.get(key).split(",")));
+	}
+
+	private ArrayList<Integer> ints(String key){
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		for(String value : list(key))
+			values.add(Integer.parseInt(value.trim()));
+		return values;
+	}
+
+	private static String join(String[] values){
+		StringBuilder sb = new StringBuilder();
+		for(String value : values){
+			if(sb.length() > 0)
+				sb.append(',');
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws InvalidMidiDataException, IOException, InterruptedException{
+		new MIDIEvoBenchmark(args).run();
+	}
+}
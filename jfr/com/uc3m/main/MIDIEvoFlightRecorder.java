@@ -0,0 +1,80 @@
+package com.uc3m.main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of the metrics of every generation (JDK 11+).
+ * The events are only created while a recording with them is running:
+ *   java -XX:StartFlightRecording=filename=run.jfr -cp bin com.uc3m.main.MIDIEvoCLI ... jfr=true
+ *   jfr print --events com.uc3m.main.Generation run.jfr
+ *
+ * Compile:
+ *   javac -cp bin -d bin jfr/com/uc3m/main/MIDIEvoFlightRecorder.java
+ *
+ * Loaded by MIDIEvoMetrics.setFlightRecorder(true), never referenced directly.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoFlightRecorder implements MIDIEvoMetrics.Recorder {
+
+	@Name("com.uc3m.main.Generation")
+	@Label("MIDIEvo Generation")
+	@Category("MIDIEvo")
+	@Description("Phase times and fitness of one generation")
+	@StackTrace(false)
+	static class GenerationEvent extends Event {
+		@Label("Run")
+		String run;
+		@Label("Generation")
+		int generation;
+		@Label("Best Fitness")
+		long best;
+		@Label("Worst Fitness")
+		long worst;
+		@Label("Mean Fitness")
+		double mean;
+		@Label("Mutation Rate")
+		double mrate;
+		@Label("Tournament") @Timespan(Timespan.NANOSECONDS)
+		long tournament;
+		@Label("Recombination") @Timespan(Timespan.NANOSECONDS)
+		long recombination;
+		@Label("Mutation") @Timespan(Timespan.NANOSECONDS)
+		long mutation;
+		@Label("Replacement") @Timespan(Timespan.NANOSECONDS)
+		long replacement;
+		@Label("Mutated Genes")
+		long mutations;
+		@Label("Random Restarts")
+		long restarts;
+	}
+
+	private static final GenerationEvent TYPE = new GenerationEvent();	//Checks if the event is recorded
+
+	@Override
+	public void generation(String name, MIDIEvoMetrics metrics) {
+		if(!TYPE.isEnabled())
+			return;
+		GenerationEvent event = new GenerationEvent();
+		event.run = name;
+		event.generation = metrics.getGeneration();
+		event.best = metrics.getBestFitness();
+		event.worst = metrics.getWorstFitness();
+		event.mean = metrics.getMeanFitness();
+		event.mrate = metrics.getMutationRate();
+		event.tournament = metrics.getLastTournamentNanos();
+		event.recombination = metrics.getLastRecombinationNanos();
+		event.mutation = metrics.getLastMutationNanos();
+		event.replacement = metrics.getLastReplacementNanos();
+		event.mutations = metrics.getLastMutations();
+		event.restarts = metrics.getLastRandomRestarts();
+		event.commit();
+	}
+}
@@ -0,0 +1,146 @@
+package com.uc3m.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.uc3m.main.MIDIEvo;
+import com.uc3m.main.MIDIEvoEngine;
+import com.uc3m.main.MIDIEvoFitnessKernel;
+import com.uc3m.main.MIDIEvoMidiWriter;
+import com.uc3m.main.MIDIEvoPopulation;
+import com.uc3m.main.MIDIEvoTrack;
+
+/**
+ * JMH benchmarks of the evolutionary operators (jmh source folder, built by the jmh profile).
+ * Same synthetic original track and steady state population as MIDIEvoBenchmark: the engine
+ * is initialized and evolves one generation before the measurement, and every invocation
+ * goes on from the state left by the previous one. Every benchmark returns a result, so JMH
+ * consumes it. Allocation (gc.alloc.rate.norm, bytes per operation) comes from the GC profiler:
+ *   mvn -Pjmh package
+ *   java -jar target/benchmarks.jar -prof gc
+ *   java -jar target/benchmarks.jar evolve -p notes=1000 -p mode=HARD -prof gc
+ *
+ * @author antonio
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class MIDIEvoJmhBenchmark {
+
+	@Param({"8000"})
+	public int population;
+
+	@Param({"3000"})
+	public int rounds;
+
+	@Param({"100", "1000"})
+	public int notes;
+
+	@Param({"EASY", "HARD"})
+	public String mode;
+
+	private MIDIEvoEngine engine;
+	private MIDIEvoPopulation pop;
+	private MIDIEvoPopulation scalar;	//Copy of the best individual (scalar kernel)
+	private MIDIEvoMidiWriter writer;
+	private int ind = 0;				//Individual of the next fitness calculation
+
+	@Setup(Level.Trial)
+	public void setup() throws InvalidMidiDataException{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoBenchmark.syntheticTrack(notes));
+		engine = new MIDIEvoEngine(original, population, rounds,
+				mode.equalsIgnoreCase("HARD") ? MIDIEvo.HARD_MODE : MIDIEvo.EASY_MODE,
+				MIDIEvo.STRATEGY_NONE, 1, 42);
+		engine.initialize();
+		engine.evolve();
+		pop = engine.getPopulation();
+		scalar = new MIDIEvoPopulation(1, original);
+		scalar.setFitnessKernel(MIDIEvoFitnessKernel.scalar());
+		scalar.copy(0, pop, pop.getBest());
+		writer = new MIDIEvoMidiWriter();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		engine.shutdown();
+	}
+
+	/**
+	 * @return fitness of the best individual (result of the operators that only change the population)
+	 */
+	private long best(){
+		return pop.getFitness(pop.getBest());
+	}
+
+	@Benchmark
+	public long evolve(){
+		engine.evolve();
+		return best();
+	}
+
+	@Benchmark
+	public long tournament(){
+		engine.tournament();
+		return best();
+	}
+
+	@Benchmark
+	public long recombination(){
+		engine.recombination();
+		return best();
+	}
+
+	@Benchmark
+	public long mutation(){
+		engine.mutation();
+		return best();
+	}
+
+	@Benchmark
+	public long replacement(){
+		engine.replacement();
+		return best();
+	}
+
+	@Benchmark
+	public boolean amr(){
+		return engine.evaluteMutationRate();
+	}
+
+	@Benchmark
+	public long calculateFitness(){
+		long fitness = pop.calculateFitness(ind);
+		ind = (ind + 1) % pop.getSize();
+		return fitness;
+	}
+
+	@Benchmark
+	public long scalarFitness(){
+		return scalar.calculateFitness(0);
+	}
+
+	@Benchmark
+	public int encodeMidiFile(){
+		return writer.encode(pop, pop.getBest(), Sequence.PPQ, 24).limit();
+	}
+}
@@ -2,14 +2,10 @@ package com.uc3m.main;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.math.RoundingMode;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.ByteBuffer;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiSystem;
@@ -17,6 +13,7 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 import javax.sound.midi.Track;
+import javax.swing.SwingUtilities;
 
 
 /**
@@ -42,11 +39,10 @@ import javax.sound.midi.Track;
  *  (Inicial + Copia)
  *  
  */
-public class MIDIEvo implements ActionListener {
+public class MIDIEvo implements ActionListener, MIDIEvoListener {
 
-	private ArrayList<MIDIEvoTrack> population;			//Generated Population
-	private ArrayList<MIDIEvoTrack> selection;			//Tournament selection
-	private ArrayList<MIDIEvoTrack> offspring;			//Recombined population
+	private volatile MIDIEvoEngine engine;	//Evolutionary engine (population)
+	private MIDIEvoProgress progress = new MIDIEvoProgress();	//Progress shown by the GUI
 	
 	private int POPULATION_SIZE = 8000;		//Size of the population
 	private int TOURNAMENT_ROUNDS = 3000;	//Size of the population
@@ -56,28 +52,39 @@ public class MIDIEvo implements ActionListener {
 	public static final int STRATEGY_AMR = 2;
 	public static final int STRATEGY_ROG = 3;
 	public static final int MUTATION_TEST = 100;
+	public static final int MUTATE_FIELD_RANDOM = 0;	//Mutation: one random field per individual
+	public static final int MUTATE_FIELD_TYPE = 1;		//Mutation: Message type (NOTE_ON, NOTE_OFF)
+	public static final int MUTATE_FIELD_KEY = 2;		//Mutation: Key
+	public static final int MUTATE_FIELD_TICK = 4;		//Mutation: Tick (only HARD_MODE)
+	public static final int STAGNATION_NONE = 1;			//Stagnation: only report it
+	public static final int STAGNATION_STOP = 2;			//Stagnation: stop the run
+	public static final int STAGNATION_HYPERMUTATION = 3;	//Stagnation: high mutation rate for some generations
+	public static final int STAGNATION_RESEED = 4;			//Stagnation: create the worst individuals again
+	public static final int STAGNATION_WINDOW = 500;		//Generations without improvement to detect a stagnation
+	public static final int CHECKPOINT_INTERVAL = 100;	//Generations between checkpoints
 	public int MAX_GENERATIONS = 2000;		//Max number of generations
 	private MIDIEvoTrack midievotrack;		//Keeping original track
 	private int mode;
 	private int strategy;
-	private int m_test;
-	private double mrate = 0.1;
-	private double baseCoefficient = 2;
-	private double topCoefficient = 20;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
 	private MIDIEvoGUI gui;
 	private File inputFile;
-	private Sequence sequence;
-	private boolean stop = false;
+	private File checkpointFile;			//Checkpoint (null = none, only saved if asked)
+	private boolean resume = false;			//Continue the run saved in the checkpoint
+	private MIDIEvoMidiFile midiFile;		//Track to evolve of the input file
+	private Sequence sequence;				//Whole input file (only read to play it)
+	private volatile boolean stop = false;
 	private Player player;
 	private Thread playerThread;
 	private Thread evoThread;
+	private final Object snapshotLock = new Object();	//Handoff of the individual to play
+	private volatile int snapshotRank = -1;	//Rank asked by the player (-1 = none)
+	private MIDIEvoSnapshot snapshot;		//Copy taken by the evolution thread
 	
 	/**
 	 * MIDIEvo constructor
 	 */
 	public MIDIEvo(){
-		population = new ArrayList<MIDIEvoTrack>();
-		selection = new ArrayList<MIDIEvoTrack>();
 		this.mode = EASY_MODE;
 		this.strategy = STRATEGY_NONE;
 		gui = new MIDIEvoGUI(this);
@@ -119,232 +126,171 @@ public class MIDIEvo implements ActionListener {
 	public void MIDIEvoProcess() throws InvalidMidiDataException, IOException{
 		System.out.println(":::::: MIDIEvo Process ::::::");
 		
-		Track track = sequence.getTracks()[1];
-		midievotrack = new MIDIEvoTrack(track);
-		gui.setNotes(""+midievotrack.getMaxSize());
+		midievotrack = new MIDIEvoTrack(midiFile);
+		final String notes = ""+midievotrack.getMaxSize();
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				gui.setNotes(notes);
+			}
+		});
 		
 		//Initialization: Create a population of randomly generated individuals
-		gui.setStatus("Initialzing Population...");
-		for(int i = 0; i< POPULATION_SIZE; i++){
-			//Create an empty individual (Using the data from the source)
-			MIDIEvoTrack evolvedTrack = new MIDIEvoTrack(midievotrack.getMaxSize(), 
-					midievotrack.getMaxTick(), midievotrack.getChannel(), 
-					midievotrack.getOriginalMessages(), midievotrack.getOriginalMessagesTicks());
-			
-			evolvedTrack.createRandom(midievotrack);	//Generate random notes and timing
-			//If EASY_MODE then copy the timing from the original source.
-			if(mode == EASY_MODE){
-				evolvedTrack.copyTicks(midievotrack);
+		setStatus("Initialzing Population...");
+		engine = new MIDIEvoEngine(midievotrack, POPULATION_SIZE, TOURNAMENT_ROUNDS, 
+				mode, strategy, parallelism);
+		MIDIEvoStagnation stagnation = new MIDIEvoStagnation(STAGNATION_WINDOW, STAGNATION_NONE);
+		engine.setStagnation(stagnation);
+		MIDIEvoCheckpoint checkpoint = openCheckpoint();
+		if(checkpoint != null && resume){
+			try {
+				if(engine.resume(checkpoint))
+					System.out.println("Resumed at generation "+engine.getGeneration());
+			} catch (IOException e) {
+				//Another run: keep its file and don't save this one
+				System.out.println("Checkpoint disabled: "+e.getMessage());
+				checkpoint.close();
+				checkpoint = null;
+				engine.initialize();
 			}
-			//Calculate and update fitness of the individual
-			evolvedTrack.calculateFitness(midievotrack);
-			population.add(evolvedTrack);	//Add it to the population
+		}else{
+			engine.initialize();
 		}
+		System.out.println("Seed: "+engine.getSeed());
+		if(checkpoint != null)
+			engine.setCheckpoint(checkpoint, CHECKPOINT_INTERVAL);
 				
 		//Start the evolution process
-		gui.setStatus("Running...");
-		m_test = -1;
-		for(int i = 0; i< MAX_GENERATIONS && !stop; i++){
-			evolve();	//evolve the population
-			m_test++;
-			if(strategy == STRATEGY_AMR && m_test == MUTATION_TEST){
-				evaluteMutationRate();
-				m_test = 0;
+		setStatus("Running...");
+		if(!stop)
+			engine.run(MAX_GENERATIONS, this);
+		engine.shutdown();
+		if(checkpoint != null)
+			checkpoint.close();
+		System.out.println("Best fitness "+stagnation.getBestFitness()+" found at generation "
+				+stagnation.getBestGeneration()+" after "+stagnation.getTimeToBest() / 1000000+" ms, "
+				+stagnation.getWastedGenerations()+" generations without improvement");
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				gui.stopProgress();
+				gui.switchEvo();
+				gui.toggleSelect();
+				gui.setStatus("Finished...");
 			}
-			gui.setBestfit(""+population.get(0).getTotalFitness());
-			gui.setWorstfit(""+population.get(POPULATION_SIZE-1).getTotalFitness());
-			gui.setCurrgen(""+(i+1));
-
-			//If the first element has fitness zero then end.
-			if(population.get(0).getTotalFitness().compareTo(BigInteger.valueOf(0))==0)
-				i = MAX_GENERATIONS;
-		}
-		gui.switchEvo();
-		gui.toggleSelect();
-		gui.setStatus("Finished...");
+		});
 	}
 
 	/**
-	 * Method to evolve the population of tracks to match an original track
-	 * This method calls recombination and mutation and then sort by fitness.
-	 * @param method
+	 * Open the checkpoint file given in the command line
+	 * @return checkpoint, null if none was asked or it can't be created
 	 */
-	public void evolve(){
-
-		//Natural Selection
-		tournament();
-		
-		//Recombination
-		recombination();
-		
-		//Mutation of the elements
-		mutation();
-		
-		//Replacement
-		replacement();
-
-	}
-
-	
-	/**
-	 * Selection Tournament
-	 * Select three individuals randomly, the best of 
-	 * the three is selected for recombination.
-	 */
-	public void tournament(){
-		selection = new ArrayList<MIDIEvoTrack>();
-		int ind_a, ind_b, ind_c;	//individuals
-		int best;
-		for(int ii = 0; ii < TOURNAMENT_ROUNDS; ii++){
-			ind_a = ThreadLocalRandom.current().nextInt(0, POPULATION_SIZE);
-			ind_b = ThreadLocalRandom.current().nextInt(0, POPULATION_SIZE);
-			ind_c = ThreadLocalRandom.current().nextInt(0, POPULATION_SIZE);
-			
-			if( population.get(ind_a).getTotalFitness().compareTo( 
-					population.get(ind_b).getTotalFitness()) < 0 )
-				best = ind_a;
-			else
-				best = ind_b;
-			
-			if( population.get(ind_c).getTotalFitness().compareTo( 
-					population.get(best).getTotalFitness()) < 0 )
-				best = ind_c;
-			
-			selection.add(population.get(best));
+	private MIDIEvoCheckpoint openCheckpoint(){
+		if(checkpointFile == null)
+			return null;
+		try {
+			return new MIDIEvoCheckpoint(checkpointFile);
+		} catch (IOException e) {
+			System.out.println("Checkpoint disabled: "+e.getMessage());
+			return null;
 		}
 	}
 
 	/**
-	 * Recombination method
-	 * Create a new MIDIEvoTrack by recombining two individuals
-	 * Takes randomly one shortmessage of one of the parents, for every shortmessage    
-	 * @param mode EASY_MODE or HARD_MODE
-	 * @param met1	MIDIEvoTrack 1 to recombine
-	 * @param met2	MIDIEvoTrack 2 to recombine
-	 * @return
+	 * Show a status message (from any thread)
+	 * @param status
 	 */
-	
-	public void recombination(){
-		offspring = new ArrayList<MIDIEvoTrack>();
-		for(int i = 0; i < TOURNAMENT_ROUNDS; i+=2){
-			if( strategy == STRATEGY_ROG &&
-					selection.get(i).isEqualTo(selection.get(i+1))){
-
-				MIDIEvoTrack randomOffspring = new MIDIEvoTrack(midievotrack.getMaxSize(), 
-						midievotrack.getMaxTick(), midievotrack.getChannel(), 
-						midievotrack.getOriginalMessages(), midievotrack.getOriginalMessagesTicks());
-				
-				randomOffspring.createRandom(midievotrack);	//Generate random notes and timing
-				//If EASY_MODE then copy the timing from the original source.
-				if(mode == EASY_MODE){
-					randomOffspring.copyTicks(midievotrack);
-				}
-				//Calculate and update fitness of the individual
-				randomOffspring.calculateFitness(midievotrack);
-				offspring.add(randomOffspring);
-			}else{
-				offspring.add(
-					recombine(selection.get(i), selection.get(i+1)));
+	private void setStatus(final String status){
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				gui.setStatus(status);
 			}
-		}		
+		});
 	}
-	
-	public MIDIEvoTrack recombine(MIDIEvoTrack met1, MIDIEvoTrack met2){
-		MIDIEvoTrack newTrack = new MIDIEvoTrack(met1);
 
-		//For every shortmessage in the track (met1 and met2 have the same size)
-		for(int i = 0; i < met1.getSize(); i++){
-			
-			int parent = ThreadLocalRandom.current().nextInt(0, 2);
-			
-			SimplifiedShortMessage ssm = null;
-			if(parent == 1)
-				ssm = met1.getSimplifiedShortMessages().get(i);
-			else
-				ssm = met2.getSimplifiedShortMessages().get(i);
-			
-			newTrack.getSimplifiedShortMessages().add(new SimplifiedShortMessage(ssm));
-			newTrack.setTotalFitness(newTrack.getTotalFitness().add(BigInteger.valueOf(ssm.getFitness())));
+	@Override
+	public void generation(MIDIEvoEngine engine, int generation) {
+		//Only store the values, the GUI reads them FRAME_RATE times per second
+		MIDIEvoPopulation population = engine.getPopulation();
+		progress.publish(population.getFitness(population.getBest()),
+				population.getFitness(population.getWorst()), generation, engine.getMRate());
+		//Between generations: copy the individual the player is waiting for
+		if(snapshotRank > -1){
+			synchronized(snapshotLock){
+				if(snapshotRank > -1){
+					snapshot = new MIDIEvoSnapshot(population, population.getIndividual(snapshotRank), generation);
+					snapshotRank = -1;
+					snapshotLock.notifyAll();
+				}
+			}
 		}
-		//Calculate the new MIDIEvoTrack fitness
-		//newTrack.calculateFitness();
-		return newTrack;
 	}
 
 	/**
-	 * Mutation method
-	 * Select randomly an individual from the offspring 
-	 * Then call it's mutation method and calculate fitness
-	 * @param method
+	 * Copy of an individual to play. While the evolution is running, the copy is taken
+	 * by the evolution thread between two generations (the population is never read
+	 * while it's being rewritten); if not, it's taken here.
+	 * @param rank	Rank of the individual (0 = best)
+	 * @return copy of the individual (null = interrupted)
 	 */
-	public void mutation(){
-		for(int i = 0; i < offspring.size(); i++){
-			offspring.get(i).mutation(this.mode, this.mrate, midievotrack);
-			offspring.get(i).calculateFitness();
+	private MIDIEvoSnapshot takeSnapshot(int rank){
+		synchronized(snapshotLock){
+			snapshot = null;
+			snapshotRank = rank;
+			try {
+				while(snapshot == null){
+					if(evoThread == null || !evoThread.isAlive()){
+						MIDIEvoPopulation population = engine.getPopulation();
+						snapshot = new MIDIEvoSnapshot(population, population.getIndividual(rank),
+								engine.getGeneration());
+					}else
+						snapshotLock.wait(100);
+				}
+				return snapshot;
+			} catch (InterruptedException e) {
+				return null;
+			} finally {
+				snapshotRank = -1;
+				snapshot = null;
+			}
 		}
-		/*for(int i = 0; i < population.size(); i++){
-			population.get(i).mutation(this.mode, this.mrate, midievotrack);
-			population.get(i).calculateFitness();
-		}*/
 	}
 
-	
-	/**
-	 * Replacement
-	 */
-	public void replacement(){
-		Collections.sort(population);
-		population.subList(population.size() - offspring.size(), population.size()).clear();
-		population.addAll(offspring);
-		Collections.sort(population);
-	}
-	
-	public void evaluteMutationRate(){
-		BigDecimal avg = avgTopFitness();
-		BigDecimal var = BigDecimal.valueOf(0);
-		for(int i=0; i<population.size(); i++){
-			BigDecimal aux = new BigDecimal(population.get(i).getTotalFitness()).subtract(avg);
-			var = var.add(aux.pow(2));
-		}
-		BigDecimal std = var.divide(BigDecimal.valueOf(population.size()-1), 2, RoundingMode.HALF_UP);
-		BigDecimal stdDev = BigDecimal.valueOf(StrictMath.sqrt(std.doubleValue()));
-		BigDecimal coef = stdDev.divide(avg, 2, RoundingMode.HALF_UP);
-		if(coef.multiply(BigDecimal.valueOf(100)).compareTo(BigDecimal.valueOf(baseCoefficient)) < 0){
-			mrate += 0.05;
-			if(mrate > 0.7)
-				mrate = 0.7;
-			gui.setMRate(mrate*100+"%");
-		}else if(coef.multiply(BigDecimal.valueOf(100)).compareTo(BigDecimal.valueOf(topCoefficient)) > 0){
-			mrate -= 0.05;
-			if(mrate < 0.1)
-				mrate = 0.0;
-			gui.setMRate(mrate*100+"%");
-		}
+	@Override
+	public void mutationRateChanged(MIDIEvoEngine engine) {
+		//The mutation rate is published with every generation
 	}
-	
-		
-	/**
-	 * Calculate average fitness from the population
-	 * @return BigInteger average fitness
-	 */
-	public BigDecimal avgTopFitness(){
-		BigDecimal fitness = BigDecimal.valueOf(0);
-		for(int i=0; i<population.size(); i++){
-			fitness = fitness.add(new BigDecimal(population.get(i).getTotalFitness()));
-		}
-		fitness = fitness.divide(BigDecimal.valueOf(population.size()));
-		return fitness;
+
+	@Override
+	public void stagnation(MIDIEvoEngine engine, MIDIEvoStagnation stagnation) {
+		System.out.println("Stagnated at generation "+engine.getGeneration()
+				+" (best fitness found at generation "+stagnation.getBestGeneration()+")");
 	}
-		
+
 	/**
-	 * Main Method - take as arguments the source file name and the mode (EASY_MODE/HARD_MODE)
-	 * @param args
+	 * Main Method - the input file and the parameters are chosen in the window.
+	 * Checkpoints are only saved if asked: checkpoint=file (saved every CHECKPOINT_INTERVAL
+	 * generations) and resume=true (continue the run saved in the file, if it's the same file
+	 * and parameters; if not, the file is left as is and nothing is saved)
+	 * @param args	checkpoint=file resume=true|false
 	 * @throws InvalidMidiDataException
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws InvalidMidiDataException, IOException{
 		
 		MIDIEvo main = new MIDIEvo();
+		for(String arg : args){
+			int eq = arg.indexOf('=');
+			String key = eq < 0 ? arg : arg.substring(0, eq);
+			String value = eq < 0 ? "" : arg.substring(eq + 1);
+			if(key.equals("checkpoint"))
+				main.checkpointFile = new File(value);
+			else if(key.equals("resume"))
+				main.resume = Boolean.parseBoolean(value);
+			else
+				throw new IllegalArgumentException("Unknown parameter: "+arg);
+		}
 		main.getGUI().constructWindow();
 	}
 	
@@ -353,7 +299,7 @@ public class MIDIEvo implements ActionListener {
 		System.out.println("Total time: "+((tEnd - tStart)/1000)+" sec");
 		//Create an output sequence to save the best generated individual as a file
 		Sequence outSequence = new Sequence(sequence.getDivisionType(), sequence.getResolution());
-		population.get(0).convertToTrack(outSequence);
+		population.toTrack(population.getIndividual(0)).convertToTrack(outSequence);
 		MidiSystem.write(outSequence, 1, new File("/home/antonio/sounds/myEvolvedTrack.mid"));
 	}*/
 
@@ -387,12 +333,12 @@ public class MIDIEvo implements ActionListener {
 	
 	private void selectFile(){
 		sequence = null;
+		midiFile = null;
 		inputFile = gui.selectFile();
 		if(inputFile != null){
 			try {
-				sequence = MidiSystem.getSequence(inputFile);
-				Track track = sequence.getTracks()[1];
-				midievotrack = new MIDIEvoTrack(track);
+				midiFile = MIDIEvoMidiFile.read(inputFile, 1);
+				midievotrack = new MIDIEvoTrack(midiFile);
 				gui.setNotes(""+midievotrack.getMaxSize());
 			} catch (InvalidMidiDataException | IOException e) {
 				e.printStackTrace();
@@ -405,18 +351,21 @@ public class MIDIEvo implements ActionListener {
 		gui.setWorstfit("0");
 		gui.setCurrgen("1");
 		gui.setMRate("10%");
-		population = new ArrayList<MIDIEvoTrack>();
-		selection = new ArrayList<MIDIEvoTrack>();
+		engine = null;
+		progress = new MIDIEvoProgress();
 		this.mode = gui.getMode();
 		this.POPULATION_SIZE = gui.getPopulation();
 		this.TOURNAMENT_ROUNDS = gui.getTournaments();
 		this.MAX_GENERATIONS = gui.getGenerations();
 		this.strategy = gui.getStrategy();
-		this.mrate = 0.1;
+		this.parallelism = gui.getThreads();
 	}
 	
 	private void stop(){
 		stop = true;
+		MIDIEvoEngine engine = this.engine;
+		if(engine != null)
+			engine.stop();
 	}
 	
 	private void start(){
@@ -426,6 +375,7 @@ public class MIDIEvo implements ActionListener {
 		}
 		reset();
 		gui.toggleSelect();
+		gui.startProgress(progress);
 
 		gui.switchEvo();
 		
@@ -438,7 +388,7 @@ public class MIDIEvo implements ActionListener {
 	}
 	
 	private void playOrig(){
-		if(sequence == null)
+		if(midiFile == null)
 			return;
 		gui.switchOrig();
 		gui.switchBest("play");
@@ -452,7 +402,7 @@ public class MIDIEvo implements ActionListener {
 	}
 	
 	private void playBest(){
-		if(population == null || population.size() == 0)
+		if(engine == null || engine.getPopulation() == null)
 			return;
 		gui.switchBest();
 		gui.switchOrig("play");
@@ -466,7 +416,7 @@ public class MIDIEvo implements ActionListener {
 	}
 	
 	private void playWorst(){
-		if(population == null || population.size() == 0)
+		if(engine == null || engine.getPopulation() == null)
 			return;
 		gui.switchWorst();
 		gui.switchOrig("play");
@@ -526,19 +476,25 @@ public class MIDIEvo implements ActionListener {
 				sequencer = MidiSystem.getSequencer();
 				sequencer.open();
 				sequencer.setTempoInBPM(240);
-				Sequence outSequence;
 				if(pos > -1){
-					outSequence = new Sequence(sequence.getDivisionType(), sequence.getResolution());
-					ArrayList<MIDIEvoTrack> pop = new ArrayList<MIDIEvoTrack>(population);
-					Collections.sort(pop);
-					pop.get(pos).convertToTrack(outSequence);
-					sequencer.setSequence(outSequence);
-				}else
+					//Encoded as a MIDI file, the sequencer reads it from memory
+					MIDIEvoSnapshot individual = takeSnapshot(pos);
+					if(individual == null){
+						sequencer.close();
+						return;
+					}
+					ByteBuffer file = new MIDIEvoMidiWriter().encode(individual,
+							midiFile.getDivisionType(), midiFile.getResolution());
+					sequencer.setSequence(new ByteArrayInputStream(file.array(), 0, file.limit()));
+				}else{
+					if(sequence == null)
+						sequence = MidiSystem.getSequence(inputFile);
 					sequencer.setSequence(sequence);
+				}
 				sequencer.start();
 			} catch (MidiUnavailableException e) {
 				e.printStackTrace();
-			} catch (InvalidMidiDataException e) {
+			} catch (InvalidMidiDataException | IOException e) {
 				e.printStackTrace();
 			}
 		}
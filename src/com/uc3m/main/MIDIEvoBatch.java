@@ -0,0 +1,506 @@
+package com.uc3m.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+
+/**
+ * Batch evolution of many MIDI files (one track of every file).
+ *
+ * Reading and writing the files runs in an I/O executor (virtual threads when the
+ * JVM has them, Java 21+, otherwise a fixed pool of maxJobs daemon threads) and the
+ * evolution runs in a fixed pool of CPU threads. Every job is evolved in slices
+ * of some generations: after a slice the job goes back to the queue, and the
+ * queue gives the next slice to the job that has used less CPU time, so short
+ * files are finished while the long ones are still running. At most maxJobs jobs
+ * (and their populations) are in memory at the same time: a job takes its place
+ * before its file is queued for reading, so the I/O executor never has more than
+ * maxJobs tasks waiting or running.
+ *
+ * Every output is written next to its input (song.mid -> song.evo.mid), and the
+ * report has the wall time, CPU time and final fitness of every job.
+ *
+ * Parameters (key=value):
+ *   input=dir | file.mid,other.mid (directory: every .mid/.midi file except *.evo.mid)
+ *   jobs=list.txt (one job per line: file key=value... with the job's own parameters)
+ *   threads=(processors) (CPU threads)  slice=50 (generations)  max_jobs=(2 * threads)
+ *   report=(none) (CSV report)  seed=(random) (seed of the job seeds)
+ * Job parameters (defaults for every job, or per job in the jobs file):
+ *   track=1  mode=EASY|HARD  strategy=NONE|AMR|ROG  population=8000  tournaments=3000
+ *   generations=2000  mrate=0.1  guided=false  unique=false  seed=(from the batch seed)
+ *   output=(input.evo.mid)
+ *
+ * Example:
+ *   java -Djava.awt.headless=true -cp bin com.uc3m.main.MIDIEvoBatch input=songs population=2000 threads=8
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoBatch {
+
+	private static final String[] JOB_PARAMS = {"track", "mode", "strategy", "population", "tournaments",
+		"generations", "mrate", "guided", "unique", "seed", "output"};
+	private Map<String, String> defaults = new LinkedHashMap<String, String>();
+	private ArrayList<Job> jobs = new ArrayList<Job>();
+	private int threads;
+	private int slice;
+	private int maxJobs;
+	private MIDIEvoRandom random;		//Seeds of the jobs without a seed
+	private volatile boolean stop = false;
+
+	/**
+	 * One MIDI file
+	 */
+	public class Job implements Runnable, Comparable<Job> {
+
+		private int index;					//Order of the job (ties of the queue)
+		private File input;
+		private Map<String, String> params;
+		private MIDIEvoMidiFile midiFile;	//Track to evolve (null until the file is read)
+		private MIDIEvoEngine engine;		//null until the file is read
+		private int maxGenerations;
+		private long start;					//Start of the job (nanoseconds)
+		private volatile long cpuNanos;		//Evolution time of the job
+		private long wallNanos;				//Read, evolve and write time
+		private int notes;
+		private int generations;
+		private long best = -1;
+		private long worst = -1;
+		private String error;				//Why the job failed (null if it didn't)
+		private boolean acquired = false;	//The job has its place in memory (taken before load)
+		private ExecutorService io;
+		private ThreadPoolExecutor cpu;
+		private Semaphore inMemory;
+		private CountDownLatch done;
+
+		private Job(int index, File input, Map<String, String> params){
+			this.index = index;
+			this.input = input;
+			this.params = params;
+		}
+
+		/**
+		 * Read the file and queue the first slice (I/O executor, the job has its place in memory)
+		 */
+		private void load(){
+			start = System.nanoTime();
+			try {
+				if(stop){
+					finish("stopped");
+					return;
+				}
+				int track = Integer.parseInt(params.get("track"));
+				midiFile = MIDIEvoMidiFile.read(input, track);
+				MIDIEvoTrack original = new MIDIEvoTrack(midiFile);
+				notes = original.getMaxSize();
+				if(notes == 0)
+					throw new IllegalArgumentException("No notes in track "+track);
+				maxGenerations = Integer.parseInt(params.get("generations"));
+				engine = new MIDIEvoEngine(original, Integer.parseInt(params.get("population")),
+						Integer.parseInt(params.get("tournaments")), MIDIEvoCLI.parseMode(params.get("mode")),
+						MIDIEvoCLI.parseStrategy(params.get("strategy")), 1, Long.parseLong(params.get("seed")));
+				engine.setName(input.getName());
+				engine.setMRate(Double.parseDouble(params.get("mrate")));
+				engine.setGuidedMutation(Boolean.parseBoolean(params.get("guided")));
+				engine.setUniqueReplacement(Boolean.parseBoolean(params.get("unique")));
+				cpu.execute(this);
+			} catch (InvalidMidiDataException | IOException | RuntimeException e) {
+				finish(e.toString());
+			}
+		}
+
+		/**
+		 * Evolve one slice (CPU pool), then queue the next one or write the output
+		 */
+		@Override
+		public void run(){
+			long t = System.nanoTime();
+			try {
+				if(engine.getPopulation() == null)
+					engine.initialize();
+				if(!stop)
+					engine.run(Math.min(maxGenerations, engine.getGeneration() + slice), null);
+			} catch (RuntimeException | OutOfMemoryError e) {
+				cpuNanos += System.nanoTime() - t;
+				finish(e.toString());
+				return;
+			}
+			cpuNanos += System.nanoTime() - t;
+			MIDIEvoPopulation population = engine.getPopulation();
+			if(engine.getGeneration() < maxGenerations && population.getFitness(population.getBest()) > 0 && !stop){
+				cpu.execute(this);
+			}else{
+				io.execute(new Runnable(){
+					@Override
+					public void run() {
+						write();
+					}
+				});
+			}
+		}
+
+		/**
+		 * Write the best individual next to the input (I/O executor)
+		 */
+		private void write(){
+			MIDIEvoPopulation population = engine.getPopulation();
+			generations = engine.getGeneration();
+			best = population.getFitness(population.getBest());
+			worst = population.getFitness(population.getWorst());
+			try {
+				new MIDIEvoMidiWriter().write(population, population.getBest(), midiFile.getDivisionType(),
+						midiFile.getResolution(), getOutput());
+				finish(null);
+			} catch (IOException e) {
+				finish(e.toString());
+			}
+		}
+
+		/**
+		 * End of the job: free its memory
+		 * @param error	Why the job failed (null if it didn't)
+		 */
+		private void finish(String error){
+			this.error = error;
+			if(acquired)
+				wallNanos = System.nanoTime() - start;
+			midiFile = null;
+			if(engine != null){
+				generations = engine.getGeneration();
+				engine = null;
+			}
+			if(acquired)
+				inMemory.release();
+			done.countDown();
+		}
+
+		/**
+		 * The job that has used less CPU time goes first
+		 */
+		@Override
+		public int compareTo(Job other){
+			int c = Long.compare(cpuNanos, other.cpuNanos);
+			return c != 0 ? c : Integer.compare(index, other.index);
+		}
+
+		public File getInput(){
+			return input;
+		}
+
+		public File getOutput(){
+			return new File(params.get("output"));
+		}
+
+		public long getCpuNanos(){
+			return cpuNanos;
+		}
+
+		public long getWallNanos(){
+			return wallNanos;
+		}
+
+		public int getNotes(){
+			return notes;
+		}
+
+		public int getGenerations(){
+			return generations;
+		}
+
+		public long getBestFitness(){
+			return best;
+		}
+
+		public long getWorstFitness(){
+			return worst;
+		}
+
+		public String getError(){
+			return error;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param defaults	Default job parameters (JOB_PARAMS)
+	 * @param threads	CPU threads
+	 * @param slice	Generations of a job before the next job gets the thread
+	 * @param maxJobs	Max jobs in memory (at least threads)
+	 * @param seed	Seed of the seeds of the jobs without a seed
+	 */
+	public MIDIEvoBatch(Map<String, String> defaults, int threads, int slice, int maxJobs, long seed){
+		this.defaults.put("track", "1");
+		this.defaults.put("mode", "EASY");
+		this.defaults.put("strategy", "NONE");
+		this.defaults.put("population", "8000");
+		this.defaults.put("tournaments", "3000");
+		this.defaults.put("generations", "2000");
+		this.defaults.put("mrate", "0.1");
+		this.defaults.put("guided", "false");
+		this.defaults.put("unique", "false");
+		this.defaults.put("seed", null);
+		this.defaults.put("output", null);
+		for(Map.Entry<String, String> param : defaults.entrySet())
+			setParam(this.defaults, param.getKey(), param.getValue());
+		this.threads = Math.max(1, threads);
+		this.slice = Math.max(1, slice);
+		this.maxJobs = Math.max(this.threads, maxJobs);
+		this.random = new MIDIEvoRandom(seed);
+	}
+
+	private static void setParam(Map<String, String> params, String key, String value){
+		if(!Arrays.asList(JOB_PARAMS).contains(key))
+			throw new IllegalArgumentException("Unknown job parameter: "+key);
+		params.put(key, value);
+	}
+
+	/**
+	 * Add a job
+	 * @param input	MIDI file
+	 * @param params	Job parameters (the rest are the defaults)
+	 * @return job
+	 */
+	public Job add(File input, Map<String, String> params){
+		Map<String, String> jobParams = new LinkedHashMap<String, String>(defaults);
+		for(Map.Entry<String, String> param : params.entrySet())
+			setParam(jobParams, param.getKey(), param.getValue());
+		if(jobParams.get("seed") == null)
+			jobParams.put("seed", ""+random.nextLong());
+		if(jobParams.get("output") == null)
+			jobParams.put("output", MIDIEvoCLI.outputName(input.getPath()));
+		Job job = new Job(jobs.size(), input, jobParams);
+		jobs.add(job);
+		return job;
+	}
+
+	/**
+	 * Add every MIDI file of a directory (sorted by name, outputs *.evo.mid are skipped)
+	 * @param dir
+	 */
+	public void addDirectory(File dir){
+		File[] files = dir.listFiles();
+		if(files == null)
+			return;
+		Arrays.sort(files);
+		for(File file : files){
+			String name = file.getName().toLowerCase(Locale.ROOT);
+			if(file.isFile() && (name.endsWith(".mid") || name.endsWith(".midi")) && !name.endsWith(".evo.mid"))
+				add(file, new LinkedHashMap<String, String>());
+		}
+	}
+
+	/**
+	 * Add the jobs of a list: one job per line, the file (relative to the list)
+	 * and its parameters (key=value). Empty lines and lines starting with # are skipped.
+	 * @param list
+	 * @throws IOException
+	 */
+	public void addList(File list) throws IOException{
+		File dir = list.getAbsoluteFile().getParentFile();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(list), StandardCharsets.UTF_8))){
+			String line;
+			while((line = reader.readLine()) != null){
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] parts = line.split("\\s+");
+				Map<String, String> params = new LinkedHashMap<String, String>();
+				for(int i = 1; i < parts.length; i++){
+					int eq = parts[i].indexOf('=');
+					if(eq < 0)
+						throw new IllegalArgumentException("Wrong job parameter: "+parts[i]);
+					params.put(parts[i].substring(0, eq), parts[i].substring(eq + 1));
+				}
+				File file = new File(parts[0]);
+				add(file.isAbsolute() ? file : new File(dir, parts[0]), params);
+			}
+		}
+	}
+
+	/**
+	 * Run every job and wait until all of them are finished
+	 * @return number of jobs that failed
+	 * @throws InterruptedException
+	 */
+	public int run() throws InterruptedException{
+		ExecutorService io = ioExecutor(maxJobs);
+		ThreadPoolExecutor cpu = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), daemonThreads("MIDIEvo-batch"));
+		Semaphore inMemory = new Semaphore(maxJobs, true);
+		CountDownLatch done = new CountDownLatch(jobs.size());
+		try {
+			for(final Job job : jobs){
+				job.io = io;
+				job.cpu = cpu;
+				job.inMemory = inMemory;
+				job.done = done;
+				inMemory.acquire();
+				job.acquired = true;
+				io.execute(new Runnable(){
+					@Override
+					public void run() {
+						job.load();
+					}
+				});
+			}
+			done.await();
+		} finally {
+			if(done.getCount() > 0)
+				stop = true;
+			cpu.shutdown();
+			io.shutdown();
+		}
+		int failed = 0;
+		for(Job job : jobs)
+			if(job.error != null)
+				failed++;
+		return failed;
+	}
+
+	/**
+	 * Stop every job (after its current slice)
+	 */
+	public void stop(){
+		stop = true;
+	}
+
+	/**
+	 * Executor of the file I/O: one virtual thread per task (Java 21+),
+	 * otherwise a fixed pool of daemon threads
+	 * @param threads	Threads of the pool (max I/O tasks at the same time)
+	 * @return executor
+	 */
+	private static ExecutorService ioExecutor(int threads){
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(threads, daemonThreads("MIDIEvo-io"));
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String name){
+		return new ThreadFactory(){
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name+"-"+(count++));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	public ArrayList<Job> getJobs(){
+		return jobs;
+	}
+
+	/**
+	 * Print the report of every job
+	 * @param out
+	 */
+	public void printReport(PrintStream out){
+		out.println(String.format(Locale.ROOT, "%-32s %6s %6s %10s %10s %10s %10s  %s",
+				"file", "notes", "gens", "best", "worst", "wall_ms", "cpu_ms", "status"));
+		for(Job job : jobs){
+			out.println(String.format(Locale.ROOT, "%-32s %6d %6d %10d %10d %10.1f %10.1f  %s",
+					job.input.getName(), job.notes, job.generations, job.best, job.worst,
+					job.wallNanos / 1e6, job.cpuNanos / 1e6, job.error == null ? "ok" : job.error));
+		}
+	}
+
+	/**
+	 * Write the report of every job as a CSV file
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeReport(File file) throws IOException{
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+				StandardCharsets.UTF_8))){
+			out.println("input,output,notes,generations,best,worst,solved,wall_ms,cpu_ms,error");
+			for(Job job : jobs){
+				out.println(String.format(Locale.ROOT, "\"%s\",\"%s\",%d,%d,%d,%d,%b,%.1f,%.1f,\"%s\"",
+						job.input.getPath(), job.getOutput().getPath(), job.notes, job.generations,
+						job.best, job.worst, job.best == 0, job.wallNanos / 1e6, job.cpuNanos / 1e6,
+						job.error == null ? "" : job.error.replace('"', '\'')));
+			}
+		}
+	}
+
+	/**
+	 * Main Method - batch evolution
+	 * @param args	key=value parameters
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException{
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		Map<String, String> defaults = new LinkedHashMap<String, String>();
+		params.put("input", null);
+		params.put("jobs", null);
+		params.put("threads", ""+Runtime.getRuntime().availableProcessors());
+		params.put("slice", "50");
+		params.put("max_jobs", null);
+		params.put("report", null);
+		params.put("seed", null);
+		for(String arg : args){
+			int eq = arg.indexOf('=');
+			if(eq < 0)
+				throw new IllegalArgumentException("Unknown parameter: "+arg);
+			String key = arg.substring(0, eq);
+			if(params.containsKey(key))
+				params.put(key, arg.substring(eq + 1));
+			else
+				setParam(defaults, key, arg.substring(eq + 1));
+		}
+		if(params.get("input") == null && params.get("jobs") == null)
+			throw new IllegalArgumentException("Missing parameter: input or jobs");
+		int threads = Integer.parseInt(params.get("threads"));
+		long seed = params.get("seed") == null ? MIDIEvoRandom.newSeed() : Long.parseLong(params.get("seed"));
+		MIDIEvoBatch batch = new MIDIEvoBatch(defaults, threads, Integer.parseInt(params.get("slice")),
+				params.get("max_jobs") == null ? 2 * threads : Integer.parseInt(params.get("max_jobs")), seed);
+		if(params.get("input") != null){
+			for(String input : params.get("input").split(",")){
+				File file = new File(input.trim());
+				if(file.isDirectory())
+					batch.addDirectory(file);
+				else
+					batch.add(file, new LinkedHashMap<String, String>());
+			}
+		}
+		if(params.get("jobs") != null)
+			batch.addList(new File(params.get("jobs")));
+
+		long start = System.nanoTime();
+		int failed = batch.run();
+		long wall = System.nanoTime() - start;
+		batch.printReport(System.out);
+		System.out.println(String.format(Locale.ROOT, "jobs=%d failed=%d wall_ms=%.1f",
+				batch.getJobs().size(), failed, wall / 1e6));
+		if(params.get("report") != null)
+			batch.writeReport(new File(params.get("report")));
+	}
+}
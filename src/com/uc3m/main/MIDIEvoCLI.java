@@ -0,0 +1,591 @@
+package com.uc3m.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+/**
+ * Headless (command line) runner.
+ * Evolves one track of a MIDI file without the GUI (no AWT/Swing classes are loaded)
+ * and writes the best individual to the output file.
+ * Progress and results are printed as key=value lines.
+ *
+ * Parameters (key=value):
+ *   input=song.mid (required)  output=song.evo.mid  track=1  mode=EASY|HARD
+ *   strategy=NONE|AMR|ROG  population=8000  tournaments=3000  generations=2000
+ *   amr_every=100 (generations between AMR evaluations, 1 = every generation)
+ *   fields=RANDOM (one random part per individual) or parts of every mutated gene: TYPE,KEY,TICK
+ *   selection=tournament:3 | ranking:1.5 | sus:1.5 | truncation:0.5 (tournament size,
+ *   linear ranking pressure 1..2, or best part of the population)
+ *   unique=false (reject the offspring with the same genes as an individual of the population)
+ *   guided=false (mutate only the wrong genes, the most wrong ones more often, and only their
+ *   wrong parts; it converges faster in EASY mode only)
+ *   threads=(processors)  seed=(random)  report=100 (generations between progress lines, 0 = none)
+ *
+ * Checkpoints (one track, one island): the state is saved every checkpoint_every generations
+ * and at the end; resume=true continues the run saved in the checkpoint file (a checkpoint
+ * written with other settings, selection, mutation or stagnation included, is an error):
+ *   checkpoint=(none)  checkpoint_every=100  resume=false
+ *
+ * Stagnation (no improvement of the best fitness over stagnation_window generations, or a
+ * fraction of different genomes lower than min_diversity): only report it, stop, hypermutation burst
+ * (hyper_rate for hyper_generations) or create the worst reseed part of the population again:
+ *   stagnation=NONE|STOP|HYPER|RESEED  stagnation_window=500  min_improvement=0 (fraction)
+ *   min_diversity=0 (fraction of different genomes)  hyper_rate=0.5  hyper_generations=50  reseed=0.5
+ *
+ * Metrics (one track or song): phase times, counters and fitness as a JMX MBean
+ * (com.uc3m.main:type=MIDIEvoMetrics), a CSV file every metrics_every generations rolled over
+ * at metrics_max_mb (one file per island or part: name-island-N.csv, name-track-N.csv) and JFR
+ * events (jfr source folder):
+ *   jmx=false  metrics_csv=(none)  metrics_every=100  metrics_max_mb=10  jfr=false
+ *
+ * Export (one track): the best individual is written to a MIDI file in the background while
+ * the run goes on, when it improves and at most every export_every generations and export_ms
+ * milliseconds (the file is replaced atomically, so it can be opened at any time):
+ *   export=(none)  export_every=100  export_ms=1000
+ *
+ * Island model (islands > 1): the population and tournaments are split between the islands,
+ * every island runs on its own thread and strategy/mrate can be lists (one value per island).
+ * The migrants are handed over without waiting; migration_barrier=true makes the islands wait
+ * for each other at every migration, so the same seed reproduces the same run:
+ *   islands=1  migration=50 (generations)  migrants=5  migration_barrier=false
+ *   strategy=NONE,AMR,ROG  mrate=0.1,0.3
+ *
+ * Whole song (track=all): every track (or channel of a track) is evolved at the same time,
+ * threads parts at once, and the output has every evolved track.
+ *
+ * Very long tracks (window > 0): the track is evolved in windows of some bars, threads windows
+ * at once and at most windows windows in memory, every window with its own population:
+ *   window=0 (bars, 0 = whole track)  windows=(threads)
+ *
+ * The mutation, selection, replacement and stagnation parameters apply to every island, part
+ * and window. A parameter that a mode doesn't support is an error, not ignored: checkpoints
+ * need one track and one island, resume needs a checkpoint, export needs one track, lists of
+ * strategy/mrate and the migration parameters need islands, and the window mode has no
+ * metrics (one engine per window).
+ *
+ * Example:
+ *   java -Djava.awt.headless=true -cp bin com.uc3m.main.MIDIEvoCLI input=song.mid mode=HARD strategy=AMR
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoCLI implements MIDIEvoListener {
+
+	private Map<String, String> params = new LinkedHashMap<String, String>();
+	private Map<String, String> defaults;	//Default value of every parameter
+	private int report;
+
+	/**
+	 * Constructor: Read the parameters
+	 * @param args	key=value parameters
+	 */
+	public MIDIEvoCLI(String[] args){
+		params.put("input", null);
+		params.put("output", null);
+		params.put("track", "1");
+		params.put("mode", "EASY");
+		params.put("strategy", "NONE");
+		params.put("population", "8000");
+		params.put("tournaments", "3000");
+		params.put("generations", "2000");
+		params.put("threads", ""+Runtime.getRuntime().availableProcessors());
+		params.put("seed", null);
+		params.put("report", "100");
+		params.put("islands", "1");
+		params.put("migration", "50");
+		params.put("migrants", "5");
+		params.put("migration_barrier", "false");
+		params.put("mrate", "0.1");
+		params.put("amr_every", ""+MIDIEvo.MUTATION_TEST);
+		params.put("fields", "RANDOM");
+		params.put("selection", "tournament:3");
+		params.put("unique", "false");
+		params.put("guided", "false");
+		params.put("window", "0");
+		params.put("checkpoint", null);
+		params.put("checkpoint_every", "100");
+		params.put("resume", "false");
+		params.put("stagnation", "NONE");
+		params.put("stagnation_window", ""+MIDIEvo.STAGNATION_WINDOW);
+		params.put("min_improvement", "0");
+		params.put("min_diversity", "0");
+		params.put("hyper_rate", "0.5");
+		params.put("hyper_generations", "50");
+		params.put("reseed", "0.5");
+		params.put("windows", null);
+		params.put("jmx", "false");
+		params.put("metrics_csv", null);
+		params.put("metrics_every", "100");
+		params.put("metrics_max_mb", "10");
+		params.put("jfr", "false");
+		params.put("export", null);
+		params.put("export_every", "100");
+		params.put("export_ms", "1000");
+		defaults = new LinkedHashMap<String, String>(params);
+		for(String arg : args){
+			int eq = arg.indexOf('=');
+			if(eq < 0 || !params.containsKey(arg.substring(0, eq)))
+				throw new IllegalArgumentException("Unknown parameter: "+arg);
+			params.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		if(params.get("input") == null)
+			throw new IllegalArgumentException("Missing parameter: input");
+		if(params.get("output") == null)
+			params.put("output", outputName(params.get("input")));
+		if(params.get("windows") == null)
+			params.put("windows", params.get("threads"));
+		report = Integer.parseInt(params.get("report"));
+	}
+
+	/**
+	 * Read the input, evolve the track and write the output
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	public void run() throws InvalidMidiDataException, IOException{
+		long tStart = System.nanoTime();
+		if(params.get("track").equals("all")){
+			runSong(MidiSystem.getSequence(new File(params.get("input"))), tStart);
+			return;
+		}
+		if(Integer.parseInt(params.get("window")) > 0){
+			runWindows(MIDIEvoMidiFile.read(new File(params.get("input")), Integer.parseInt(params.get("track"))),
+					tStart);
+			return;
+		}
+		//Only the track to evolve is read
+		MIDIEvoMidiFile midiFile = MIDIEvoMidiFile.read(new File(params.get("input")),
+				Integer.parseInt(params.get("track")));
+		MIDIEvoTrack midievotrack = new MIDIEvoTrack(midiFile);
+
+		long seed = params.get("seed") == null ? MIDIEvoRandom.newSeed() : Long.parseLong(params.get("seed"));
+		String[] strategyNames = params.get("strategy").split(",");
+		int[] strategies = new int[strategyNames.length];
+		for(int i = 0; i < strategies.length; i++)
+			strategies[i] = parseStrategy(strategyNames[i].trim());
+		String[] mrateValues = params.get("mrate").split(",");
+		double[] mrates = new double[mrateValues.length];
+		for(int i = 0; i < mrates.length; i++)
+			mrates[i] = Double.parseDouble(mrateValues[i].trim());
+		int islands = Integer.parseInt(params.get("islands"));
+		int populationSize = Integer.parseInt(params.get("population"));
+		int tournaments = Integer.parseInt(params.get("tournaments"));
+		int maxGenerations = Integer.parseInt(params.get("generations"));
+		print("input", params.get("input"));
+		print("notes", ""+midievotrack.getMaxSize());
+		print("seed", ""+seed);
+		print("kernel", MIDIEvoFitnessKernel.get().getName());
+
+		MIDIEvoExporter exporter = null;
+		if(params.get("export") != null)
+			exporter = new MIDIEvoExporter(new File(params.get("export")), midiFile.getDivisionType(),
+					midiFile.getResolution(), Integer.parseInt(params.get("export_every")),
+					Long.parseLong(params.get("export_ms")));
+
+		MIDIEvoEngine engine;
+		MIDIEvoIslands model = null;
+		long tInit, tEvo, tEnd;
+		int generations;
+		int firstGeneration = 0;	//Generations done before this run (resumed)
+		if(islands > 1){
+			unsupported("island", "checkpoint", "resume");
+			model = new MIDIEvoIslands(midievotrack, islands,
+					populationSize / islands, tournaments / islands, parseMode(params.get("mode")),
+					strategies, mrates, Integer.parseInt(params.get("migration")),
+					Integer.parseInt(params.get("migrants")), seed);
+			model.setBarrier(Boolean.parseBoolean(params.get("migration_barrier")));
+			print("islands", ""+islands);
+			for(MIDIEvoEngine island : model.getIslands()){
+				configure(island);
+				island.setExporter(exporter);
+				publishMetrics(island, island.getName());
+			}
+			//Every island initializes its own population on its own thread
+			tInit = tEvo = System.nanoTime();
+			generations = model.run(maxGenerations, this);
+			tEnd = System.nanoTime();
+			engine = model.getBestIsland();
+		}else{
+			unsupported("single island", "migration", "migrants", "migration_barrier");
+			singleValues("single island");
+			if(Boolean.parseBoolean(params.get("resume")) && params.get("checkpoint") == null)
+				throw new IllegalArgumentException("resume=true needs checkpoint=file");
+			engine = new MIDIEvoEngine(midievotrack, populationSize, tournaments,
+					parseMode(params.get("mode")), strategies[0],
+					Integer.parseInt(params.get("threads")), seed);
+			engine.setMRate(mrates[0]);
+			configure(engine);
+			engine.setExporter(exporter);
+			publishMetrics(engine, null);
+			MIDIEvoCheckpoint checkpoint = null;
+			if(params.get("checkpoint") != null)
+				checkpoint = new MIDIEvoCheckpoint(new File(params.get("checkpoint")));
+			tInit = System.nanoTime();
+			if(checkpoint != null && Boolean.parseBoolean(params.get("resume"))){
+				if(engine.resume(checkpoint)){
+					firstGeneration = engine.getGeneration();
+					print("resumed", ""+firstGeneration);
+				}
+			}else{
+				engine.initialize();
+			}
+			if(checkpoint != null)
+				engine.setCheckpoint(checkpoint, Integer.parseInt(params.get("checkpoint_every")));
+			tEvo = System.nanoTime();
+			generations = engine.run(maxGenerations, this);
+			tEnd = System.nanoTime();
+			engine.shutdown();
+			if(checkpoint != null)
+				checkpoint.close();
+		}
+		if(exporter != null)
+			exporter.close();
+
+		//Save the best generated individual as a file
+		MIDIEvoPopulation population = engine.getPopulation();
+		new MIDIEvoMidiWriter().write(population, population.getBest(), midiFile.getDivisionType(),
+				midiFile.getResolution(), new File(params.get("output")));
+		long tWrite = System.nanoTime();
+
+		print("output", params.get("output"));
+		print("generations", ""+generations);
+		print("best", ""+population.getFitness(population.getBest()));
+		print("worst", ""+population.getFitness(population.getWorst()));
+		print("mrate", String.format(Locale.ROOT, "%.2f", engine.getMRate()));
+		print("load_ms", ms(tInit - tStart));
+		print("init_ms", ms(tEvo - tInit));
+		print("evolve_ms", ms(tEnd - tEvo));
+		print("write_ms", ms(tWrite - tEnd));
+		print("total_ms", ms(tWrite - tStart));
+		print("generations_per_sec", String.format(Locale.ROOT, "%.2f",
+				(generations - firstGeneration) / Math.max(1e-9, (tEnd - tEvo) / 1e9)));
+		MIDIEvoStagnation stagnation = engine.getStagnation();
+		print("solved", ""+(population.getFitness(population.getBest()) == 0));
+		print("best_generation", ""+stagnation.getBestGeneration());
+		print("time_to_best_ms", ms(stagnation.getTimeToBest()));
+		print("wasted_generations", ""+stagnation.getWastedGenerations());
+		print("stagnations", ""+stagnation.getStagnations());
+		print("rejected", ""+population.getRejected());
+		MIDIEvoMetrics metrics = engine.getMetrics();
+		print("tournament_ms", ms(metrics.getTournamentNanos()));
+		print("recombination_ms", ms(metrics.getRecombinationNanos()));
+		print("mutation_ms", ms(metrics.getMutationNanos()));
+		print("replacement_ms", ms(metrics.getReplacementNanos()));
+		print("mutations", ""+metrics.getMutations());
+		print("random_restarts", ""+metrics.getRandomRestarts());
+		print("rate_changes", ""+metrics.getRateChanges());
+		print("genes_per_sec", String.format(Locale.ROOT, "%.0f",
+				metrics.getGenesEvaluated() / Math.max(1e-9, (tEnd - tEvo) / 1e9)));
+		print("allocated_bytes", ""+metrics.getAllocatedBytes());
+		if(exporter != null){
+			print("exported", ""+exporter.getExported());
+			print("exports_dropped", ""+exporter.getDropped());
+			print("export_generation", ""+exporter.getWrittenGeneration());
+		}
+		if(model != null)
+			for(MIDIEvoEngine island : model.getIslands())
+				island.getMetrics().closeCsv();
+		else
+			metrics.closeCsv();
+	}
+
+	/**
+	 * Publish the metrics of an engine (JMX, CSV and JFR, as configured)
+	 * @param engine
+	 * @param name	Name of the island (null for a single engine)
+	 * @throws IOException
+	 */
+	private void publishMetrics(MIDIEvoEngine engine, String name) throws IOException{
+		MIDIEvoMetrics metrics = engine.getMetrics();
+		String input = new File(params.get("input")).getName();
+		if(Boolean.parseBoolean(params.get("jmx"))){
+			try {
+				metrics.register(name == null ? input : input+"/"+name);
+			} catch (JMException e) {
+				throw new IOException("Can't register the metrics MBean", e);
+			}
+		}
+		String csv = params.get("metrics_csv");
+		if(csv != null){
+			if(name != null){
+				int dot = csv.lastIndexOf('.');
+				csv = dot > 0 ? csv.substring(0, dot)+"-"+name+csv.substring(dot) : csv+"-"+name;
+			}
+			metrics.setCsv(new File(csv), Integer.parseInt(params.get("metrics_every")),
+					(long) (Double.parseDouble(params.get("metrics_max_mb")) * 1024 * 1024));
+		}
+		if(Boolean.parseBoolean(params.get("jfr")) && !metrics.setFlightRecorder(true))
+			print("jfr", "not available");
+	}
+
+	/**
+	 * Mutation, selection, replacement and stagnation settings of an engine
+	 * (every mode, the mutation rate is set by the caller)
+	 * @param engine
+	 */
+	private void configure(MIDIEvoEngine engine){
+		engine.setMutationTest(Integer.parseInt(params.get("amr_every")));
+		engine.setMutationFields(parseFields(params.get("fields")));
+		engine.setSelection(MIDIEvoSelection.parse(params.get("selection")));
+		engine.setUniqueReplacement(Boolean.parseBoolean(params.get("unique")));
+		engine.setGuidedMutation(Boolean.parseBoolean(params.get("guided")));
+		engine.setStagnation(stagnation());
+	}
+
+	/**
+	 * Fail if a parameter that a mode doesn't use was given (instead of ignoring it)
+	 * @param mode	Name of the mode
+	 * @param keys	Parameters the mode doesn't support
+	 */
+	private void unsupported(String mode, String... keys){
+		for(String key : keys){
+			String value = params.get(key);
+			if(value == null ? defaults.get(key) != null : !value.equals(defaults.get(key)))
+				throw new IllegalArgumentException(key+"="+value+" is not supported in "+mode+" mode");
+		}
+		if(Arrays.asList(keys).contains("islands"))
+			singleValues(mode);
+	}
+
+	/**
+	 * Fail if strategy or mrate is a list (one value per island) in a mode without islands
+	 * @param mode	Name of the mode
+	 */
+	private void singleValues(String mode){
+		for(String key : new String[]{"strategy", "mrate"})
+			if(params.get(key).contains(","))
+				throw new IllegalArgumentException(key+"="+params.get(key)+" is not supported in "+mode
+						+" mode (lists need islands)");
+	}
+
+	/**
+	 * @return stagnation tracker with the parameters of the run
+	 */
+	private MIDIEvoStagnation stagnation(){
+		MIDIEvoStagnation stagnation = new MIDIEvoStagnation(Integer.parseInt(params.get("stagnation_window")),
+				parseStagnation(params.get("stagnation")));
+		stagnation.setMinImprovement(Double.parseDouble(params.get("min_improvement")));
+		stagnation.setMinDiversity(Double.parseDouble(params.get("min_diversity")));
+		stagnation.setHypermutation(Double.parseDouble(params.get("hyper_rate")),
+				Integer.parseInt(params.get("hyper_generations")));
+		stagnation.setReseedFraction(Double.parseDouble(params.get("reseed")));
+		return stagnation;
+	}
+
+	/**
+	 * Evolve every track of the sequence and write the output
+	 * @param sequence	Source sequence
+	 * @param tStart	Start time (nanoseconds)
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	private void runSong(Sequence sequence, long tStart) throws InvalidMidiDataException, IOException{
+		unsupported("song", "islands", "migration", "migrants", "migration_barrier", "window", "checkpoint",
+				"resume", "export");
+		long seed = params.get("seed") == null ? MIDIEvoRandom.newSeed() : Long.parseLong(params.get("seed"));
+		MIDIEvoSong song = new MIDIEvoSong(sequence,
+				Integer.parseInt(params.get("population")), Integer.parseInt(params.get("tournaments")),
+				parseMode(params.get("mode")), parseStrategy(params.get("strategy")),
+				Integer.parseInt(params.get("threads")), seed);
+		for(MIDIEvoEngine engine : song.getEngines()){
+			engine.setMRate(Double.parseDouble(params.get("mrate")));
+			configure(engine);
+			publishMetrics(engine, engine.getName());
+		}
+		print("input", params.get("input"));
+		print("parts", ""+song.getEngines().size());
+		print("seed", ""+seed);
+		print("kernel", MIDIEvoFitnessKernel.get().getName());
+
+		long tEvo = System.nanoTime();
+		int generations = song.run(Integer.parseInt(params.get("generations")), this);
+		long tEnd = System.nanoTime();
+		MidiSystem.write(song.toSequence(), 1, new File(params.get("output")));
+		long tWrite = System.nanoTime();
+		for(MIDIEvoEngine engine : song.getEngines())
+			engine.getMetrics().closeCsv();
+
+		print("output", params.get("output"));
+		print("generations", ""+generations);
+		print("best", ""+song.getBestFitness());
+		print("load_ms", ms(tEvo - tStart));
+		print("evolve_ms", ms(tEnd - tEvo));
+		print("write_ms", ms(tWrite - tEnd));
+		print("total_ms", ms(tWrite - tStart));
+	}
+
+	/**
+	 * Evolve one track window by window and write the output
+	 * @param midiFile	Track to evolve
+	 * @param tStart	Start time (nanoseconds)
+	 * @throws IOException
+	 */
+	private void runWindows(MIDIEvoMidiFile midiFile, long tStart) throws IOException{
+		unsupported("window", "islands", "migration", "migrants", "migration_barrier", "checkpoint", "resume",
+				"export", "jmx", "metrics_csv", "jfr");
+		long seed = params.get("seed") == null ? MIDIEvoRandom.newSeed() : Long.parseLong(params.get("seed"));
+		MIDIEvoWindows windows = new MIDIEvoWindows(midiFile, Integer.parseInt(params.get("window")),
+				Integer.parseInt(params.get("population")), Integer.parseInt(params.get("tournaments")),
+				parseMode(params.get("mode")), parseStrategy(params.get("strategy")),
+				Integer.parseInt(params.get("threads")), Integer.parseInt(params.get("windows")), seed);
+		final double mrate = Double.parseDouble(params.get("mrate"));
+		windows.setSetup(new MIDIEvoEngineSetup(){
+			@Override
+			public void setup(MIDIEvoEngine engine) {
+				engine.setMRate(mrate);
+				configure(engine);
+			}
+		});
+		print("input", params.get("input"));
+		print("window_ticks", ""+windows.getWindowTicks());
+		print("seed", ""+seed);
+		print("kernel", MIDIEvoFitnessKernel.get().getName());
+
+		long tEvo = System.nanoTime();
+		windows.run(Integer.parseInt(params.get("generations")), this);
+		long tEnd = System.nanoTime();
+		windows.write(new File(params.get("output")));
+		long tWrite = System.nanoTime();
+
+		print("output", params.get("output"));
+		print("windows", ""+windows.getWindows());
+		print("notes", ""+windows.getNotes());
+		print("generations", ""+windows.getGenerations());
+		print("best", ""+windows.getBestFitness());
+		print("load_ms", ms(tEvo - tStart));
+		print("evolve_ms", ms(tEnd - tEvo));
+		print("write_ms", ms(tWrite - tEnd));
+		print("total_ms", ms(tWrite - tStart));
+	}
+
+	@Override
+	public synchronized void generation(MIDIEvoEngine engine, int generation) {
+		if(report > 0 && generation % report == 0){
+			MIDIEvoPopulation population = engine.getPopulation();
+			System.out.println(name(engine)+"generation="+generation
+					+" best="+population.getFitness(population.getBest())
+					+" worst="+population.getFitness(population.getWorst()));
+		}
+	}
+
+	@Override
+	public synchronized void mutationRateChanged(MIDIEvoEngine engine) {
+		if(report > 0)
+			System.out.println(String.format(Locale.ROOT, "%sgeneration=%d mrate=%.2f",
+					name(engine), engine.getGeneration(), engine.getMRate()));
+	}
+
+	@Override
+	public synchronized void stagnation(MIDIEvoEngine engine, MIDIEvoStagnation stagnation) {
+		if(report > 0)
+			System.out.println(String.format(Locale.ROOT, "%sgeneration=%d stagnation=%d best_generation=%d diversity=%.4f",
+					name(engine), engine.getGeneration(), stagnation.getStagnations(),
+					stagnation.getBestGeneration(), stagnation.getDiversity()));
+	}
+
+	/**
+	 * @param engine
+	 * @return engine prefix for the progress lines ("" if the engine has no name)
+	 */
+	private static String name(MIDIEvoEngine engine){
+		if(engine.getName() == null)
+			return "";
+		return "engine="+engine.getName()+" ";
+	}
+
+	private static void print(String key, String value){
+		System.out.println(key+"="+value);
+	}
+
+	private static String ms(long nanos){
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	/**
+	 * Default output file: input name with .evo.mid
+	 * @param input	Input file name
+	 * @return output file name
+	 */
+	public static String outputName(String input){
+		int dot = input.lastIndexOf('.');
+		if(dot > input.lastIndexOf(File.separatorChar))
+			input = input.substring(0, dot);
+		return input+".evo.mid";
+	}
+
+	/**
+	 * @param mode	EASY or HARD
+	 * @return EASY_MODE or HARD_MODE
+	 */
+	public static int parseMode(String mode){
+		switch(mode.toUpperCase(Locale.ROOT)){
+		case "EASY": return MIDIEvo.EASY_MODE;
+		case "HARD": return MIDIEvo.HARD_MODE;
+		}
+		throw new IllegalArgumentException("Unknown mode: "+mode);
+	}
+
+	/**
+	 * @param strategy	NONE, AMR or ROG
+	 * @return STRATEGY_NONE, STRATEGY_AMR or STRATEGY_ROG
+	 */
+	public static int parseStrategy(String strategy){
+		switch(strategy.toUpperCase(Locale.ROOT)){
+		case "NONE": return MIDIEvo.STRATEGY_NONE;
+		case "AMR": return MIDIEvo.STRATEGY_AMR;
+		case "ROG": return MIDIEvo.STRATEGY_ROG;
+		}
+		throw new IllegalArgumentException("Unknown strategy: "+strategy);
+	}
+
+	/**
+	 * @param fields	RANDOM or a list of TYPE, KEY and TICK
+	 * @return MUTATE_FIELD_RANDOM or a combination of MUTATE_FIELD_TYPE, MUTATE_FIELD_KEY and MUTATE_FIELD_TICK
+	 */
+	public static int parseFields(String fields){
+		int mask = MIDIEvo.MUTATE_FIELD_RANDOM;
+		for(String field : fields.split(",")){
+			switch(field.trim().toUpperCase(Locale.ROOT)){
+			case "RANDOM": break;
+			case "TYPE": mask |= MIDIEvo.MUTATE_FIELD_TYPE; break;
+			case "KEY": mask |= MIDIEvo.MUTATE_FIELD_KEY; break;
+			case "TICK": mask |= MIDIEvo.MUTATE_FIELD_TICK; break;
+			default: throw new IllegalArgumentException("Unknown mutation field: "+field);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * @param stagnation	NONE, STOP, HYPER or RESEED
+	 * @return STAGNATION_NONE, STAGNATION_STOP, STAGNATION_HYPERMUTATION or STAGNATION_RESEED
+	 */
+	public static int parseStagnation(String stagnation){
+		switch(stagnation.toUpperCase(Locale.ROOT)){
+		case "NONE": return MIDIEvo.STAGNATION_NONE;
+		case "STOP": return MIDIEvo.STAGNATION_STOP;
+		case "HYPER": return MIDIEvo.STAGNATION_HYPERMUTATION;
+		case "RESEED": return MIDIEvo.STAGNATION_RESEED;
+		}
+		throw new IllegalArgumentException("Unknown stagnation action: "+stagnation);
+	}
+
+	/**
+	 * Main Method - headless evolution
+	 * @param args	key=value parameters
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws InvalidMidiDataException, IOException{
+		new MIDIEvoCLI(args).run();
+	}
+}
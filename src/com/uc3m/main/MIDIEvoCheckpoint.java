@@ -0,0 +1,311 @@
+package com.uc3m.main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Checkpoint of a running engine in a memory-mapped file.
+ *
+ * File layout (little endian):
+ *   header	MAGIC, VERSION, genes, size, spare, tournamentRounds, mode, strategy, seed,
+ *   		mutationFields, guided, unique, mutationTest, stagnation (window, action,
+ *   		minImprovement, minDiversity, hyperRate, hyperGenerations, reseedFraction),
+ *   		target (hash of the original track), selection (length, name)
+ *   slot 0	sequence, generation, mrate, random stream (state, bits, bitCount),
+ *   		hypermutation (generations left, saved rate), stagnation state, population
+ *   slot 1	same as slot 0
+ *
+ * Checkpoints are written to the two slots in turn. The evolution thread only
+ * copies its state to the mapped slot; a background thread flushes the slot to
+ * disk and then writes its sequence number, so a slot is only valid when all
+ * of its data is on disk. Writing a slot waits for the previous flush of the
+ * same slot, so the evolution is paused for at most one buffer flush.
+ *
+ * Resume takes the valid slot with the highest sequence: the population, the
+ * generation, the mutation rate, the hypermutation burst, the stagnation history
+ * and the random stream continue exactly where the checkpoint was taken. The
+ * engine must be configured as the one that wrote the file (everything in the
+ * header) and evolve the same original track (the hash of its notes and max tick);
+ * a checkpoint of another configuration or track is rejected with an IOException.
+ * The fitness is recalculated from the genes, it's never taken from the file.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoCheckpoint implements Closeable {
+
+	private static final int MAGIC = 0x4F56454D;	//"MEVO"
+	private static final int VERSION = 3;
+	private static final int HEADER = 160;			//Bytes of the file header
+	private static final int TARGET = 100;			//Offset of the hash of the original track
+	private static final int SELECTION = 48;		//Max bytes of the selection name
+	private static final int SLOT_HEADER = 52;		//Bytes of the slot header (before the stagnation state)
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer[] slots;		//Mapped slots (null until the first read or write)
+	private Future<?>[] flushes = new Future<?>[2];	//Pending flush of every slot
+	private ExecutorService flusher;		//Flushes the slots to disk
+	private long sequence = 0;				//Sequence of the last checkpoint
+
+	/**
+	 * Constructor: Open (or create) a checkpoint file
+	 * @param file
+	 * @throws IOException
+	 */
+	public MIDIEvoCheckpoint(File file) throws IOException{
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		this.flusher = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MIDIEvo-checkpoint");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Read the last valid checkpoint into an engine with an allocated population
+	 * (same original track and configuration)
+	 * @param engine
+	 * @return false if the file is empty or has no valid slot yet
+	 * @throws IOException	if the file isn't a checkpoint of the engine's configuration
+	 */
+	public boolean read(MIDIEvoEngine engine) throws IOException{
+		MIDIEvoPopulation population = engine.getPopulation();
+		if(channel.size() == 0)
+			return false;
+		if(channel.size() < HEADER)
+			throw new IOException(file+" is not a checkpoint");
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		if(header.getInt() != MAGIC)
+			throw new IOException(file+" is not a checkpoint");
+		check("version", header.getInt(), VERSION);
+		check("genes", header.getInt(), population.getGenes());
+		check("population size", header.getInt(), population.getSize());
+		check("spare slots", header.getInt(), population.getSpare());
+		check("tournament rounds", header.getInt(), engine.getTournamentRounds());
+		check("mode", header.getInt(), engine.getMode());
+		check("strategy", header.getInt(), engine.getStrategy());
+		long seed = header.getLong();
+		check("mutation fields", header.getInt(), engine.getMutationFields());
+		check("guided mutation", header.getInt(), engine.isGuidedMutation() ? 1 : 0);
+		check("unique replacement", header.getInt(), engine.isUniqueReplacement() ? 1 : 0);
+		check("AMR interval", header.getInt(), engine.getMutationTest());
+		MIDIEvoStagnation stagnation = engine.getStagnation();
+		check("stagnation window", header.getInt(), stagnation == null ? 0 : stagnation.getWindow());
+		if(stagnation != null){
+			check("stagnation action", header.getInt(), stagnation.getAction());
+			check("stagnation min improvement", header.getDouble(), stagnation.getMinImprovement());
+			check("stagnation min diversity", header.getDouble(), stagnation.getMinDiversity());
+			check("hypermutation rate", header.getDouble(), stagnation.getHyperRate());
+			check("hypermutation generations", header.getInt(), stagnation.getHyperGenerations());
+			check("reseed fraction", header.getDouble(), stagnation.getReseedFraction());
+		}
+		long target = header.getLong(TARGET);
+		if(target != population.getTargetHash())
+			throw new IOException("Checkpoint of another run: original track "+Long.toHexString(target)
+					+" (engine: "+Long.toHexString(population.getTargetHash())+")");
+		header.position(HEADER - SELECTION - 4);
+		byte[] name = new byte[Math.max(0, Math.min(SELECTION, header.getInt()))];
+		header.get(name);
+		String selection = new String(name, StandardCharsets.UTF_8);
+		if(!selection.equals(engine.getSelection().toString()))
+			throw new IOException("Checkpoint of another run: selection "+selection
+					+" (engine: "+engine.getSelection()+")");
+
+		long slotSize = slotSize(engine);
+		if(channel.size() != HEADER + 2 * slotSize)
+			throw new IOException(file+" is damaged: "+channel.size()+" bytes");
+		map(slotSize);
+		int last = slots[0].getLong(0) >= slots[1].getLong(0) ? 0 : 1;
+		long lastSequence = slots[last].getLong(0);
+		if(lastSequence <= 0)
+			return false;
+		ByteBuffer slot = slots[last].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		slot.position(8);
+		int generation = slot.getInt();
+		double mrate = slot.getDouble();
+		engine.getRandom().setState(slot.getLong(), slot.getLong(), slot.getInt());
+		int hyperGenerations = slot.getInt();
+		double hyperSavedRate = slot.getDouble();
+		if(stagnation != null)
+			stagnation.read(slot);
+		population.read(slot);
+		engine.restore(seed, generation, mrate, hyperGenerations, hyperSavedRate);
+		sequence = lastSequence;
+		return true;
+	}
+
+	/**
+	 * Save the state of an engine (call between generations, from the evolution thread)
+	 * @param engine
+	 * @throws IOException
+	 */
+	public void write(MIDIEvoEngine engine) throws IOException{
+		MIDIEvoPopulation population = engine.getPopulation();
+		MIDIEvoStagnation stagnation = engine.getStagnation();
+		if(slots == null){
+			//New checkpoint: write the header and invalidate the old slots
+			byte[] selection = engine.getSelection().toString().getBytes(StandardCharsets.UTF_8);
+			if(selection.length > SELECTION)
+				throw new IOException("Selection name too long for a checkpoint: "+engine.getSelection());
+			long slotSize = slotSize(engine);
+			raf.setLength(HEADER + 2 * slotSize);
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(population.getGenes()).putInt(population.getSize())
+				.putInt(population.getSpare()).putInt(engine.getTournamentRounds()).putInt(engine.getMode())
+				.putInt(engine.getStrategy()).putLong(engine.getSeed())
+				.putInt(engine.getMutationFields()).putInt(engine.isGuidedMutation() ? 1 : 0)
+				.putInt(engine.isUniqueReplacement() ? 1 : 0).putInt(engine.getMutationTest());
+			header.putInt(stagnation == null ? 0 : stagnation.getWindow());
+			if(stagnation != null)
+				header.putInt(stagnation.getAction()).putDouble(stagnation.getMinImprovement())
+					.putDouble(stagnation.getMinDiversity()).putDouble(stagnation.getHyperRate())
+					.putInt(stagnation.getHyperGenerations()).putDouble(stagnation.getReseedFraction());
+			header.putLong(TARGET, population.getTargetHash());
+			header.position(HEADER - SELECTION - 4);
+			header.putInt(selection.length).put(selection);
+			header.force();
+			map(slotSize);
+			for(MappedByteBuffer slot : slots)
+				slot.putLong(0, 0);
+		}
+
+		final long next = sequence + 1;
+		int s = (int) (next % 2);
+		waitFlush(s);
+		final MappedByteBuffer slot = slots[s];
+		slot.putLong(0, 0);
+		ByteBuffer out = slot.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		out.position(8);
+		MIDIEvoRandom random = engine.getRandom();
+		out.putInt(engine.getGeneration()).putDouble(engine.getMRate())
+			.putLong(random.getState()).putLong(random.getBits()).putInt(random.getBitCount())
+			.putInt(engine.getHyperGenerations()).putDouble(engine.getHyperSavedRate());
+		if(stagnation != null)
+			stagnation.write(out);
+		population.write(out);
+		sequence = next;
+		flushes[s] = flusher.submit(new Runnable(){
+			@Override
+			public void run() {
+				//The sequence makes the slot valid once its data is on disk
+				slot.force();
+				slot.putLong(0, next);
+				slot.force();
+			}
+		});
+	}
+
+	/**
+	 * Map both slots
+	 * @param slotSize	Bytes per slot
+	 * @throws IOException
+	 */
+	private void map(long slotSize) throws IOException{
+		if(slotSize > Integer.MAX_VALUE)
+			throw new IOException("Population too big for a checkpoint slot: "+slotSize+" bytes");
+		slots = new MappedByteBuffer[2];
+		for(int s = 0; s < 2; s++){
+			slots[s] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + s * slotSize, slotSize);
+			slots[s].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * @param engine
+	 * @return bytes per slot
+	 */
+	private static long slotSize(MIDIEvoEngine engine){
+		MIDIEvoStagnation stagnation = engine.getStagnation();
+		return SLOT_HEADER + (stagnation == null ? 0 : stagnation.getStateSize())
+				+ engine.getPopulation().getStateSize();
+	}
+
+	/**
+	 * Reject the checkpoint of another configuration
+	 * @param name	Name of the setting
+	 * @param saved	Value in the checkpoint
+	 * @param value	Value of the engine
+	 * @throws IOException
+	 */
+	private static void check(String name, double saved, double value) throws IOException{
+		if(saved != value)
+			throw new IOException("Checkpoint of another run: "+name+" "+format(saved)+" (engine: "+format(value)+")");
+	}
+
+	private static String format(double value){
+		return value == (long) value ? ""+(long) value : ""+value;
+	}
+
+	/**
+	 * Wait until a slot is on disk
+	 * @param s	Slot
+	 * @throws IOException
+	 */
+	private void waitFlush(int s) throws IOException{
+		if(flushes[s] == null)
+			return;
+		//The slot can't be written while it's being flushed, so the wait can't be interrupted
+		boolean interrupted = false;
+		try {
+			while(true){
+				try {
+					flushes[s].get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("Checkpoint flush failed", e.getCause());
+		} finally {
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+		flushes[s] = null;
+	}
+
+	/**
+	 * @return sequence of the last checkpoint (0 if there is none)
+	 */
+	public long getSequence(){
+		return sequence;
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * Wait for the pending flushes and close the file
+	 */
+	@Override
+	public void close() throws IOException{
+		try {
+			waitFlush(0);
+			waitFlush(1);
+		} finally {
+			flusher.shutdown();
+			channel.close();
+			raf.close();
+		}
+	}
+}
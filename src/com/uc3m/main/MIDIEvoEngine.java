@@ -0,0 +1,731 @@
+package com.uc3m.main;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evolutionary engine.
+ * Keeps the population of one original track and runs the generation cycle
+ * (tournament, recombination, mutation and replacement).
+ *
+ * Tournament rounds, offspring creation (recombination + mutation) and the
+ * initial population are split in chunks and run in a ForkJoinPool.
+ * Every chunk writes its own part of the primitive arrays and draws from its
+ * own random stream, seeded from the run's stream before every phase.
+ * The chunks don't depend on the number of threads, so the same seed
+ * reproduces the same run with any parallelism.
+ * With parallelism 1 everything runs on the calling thread.
+ *
+ * The offspring is created in the free slots of the population and the
+ * fork/join tasks are reused, so a generation doesn't allocate memory.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoEngine {
+
+	private MIDIEvoPopulation population;	//Generated Population
+	private int[] selection;				//Selected individuals (parents)
+	private MIDIEvoSelection selectionMethod = MIDIEvoSelection.tournament(3);	//Parent selection
+	private int offspring;					//Offspring per generation
+	private MIDIEvoTrack midievotrack;		//Keeping original track
+	private int populationSize;
+	private int tournamentRounds;
+	private int mode;
+	private int strategy;
+	private double mrate = 0.1;
+	private double baseCoefficient = 2;
+	private double topCoefficient = 20;
+	private int mutationTest = MIDIEvo.MUTATION_TEST;	//Generations between AMR evaluations
+	private int mutationFields = MIDIEvo.MUTATE_FIELD_RANDOM;	//Parts of the genes mutated
+	private boolean uniqueReplacement = false;	//Reject the offspring already in the population
+	private boolean guidedMutation = false;		//Mutate only the wrong genes
+	private int parallelism;
+	private ForkJoinPool pool;
+	private String name;					//Name of the run (island, track...)
+	private int generation;					//Number of generations done
+	private volatile boolean stop = false;
+	private long seed;						//Run seed
+	private MIDIEvoRandom random;			//Run stream (seeds the chunk streams)
+	private MIDIEvoRandom[] randoms;		//Chunk streams
+	private GenerationTask[] tasks = new GenerationTask[4];	//Fork/join tasks of every operation
+	private MIDIEvoCheckpoint checkpoint;	//Checkpoint file (can be null)
+	private int checkpointInterval;			//Generations between checkpoints
+	private MIDIEvoStagnation stagnation;	//Convergence tracking (can be null)
+	private int hyperGenerations = 0;		//Generations left of a hypermutation burst
+	private double hyperSavedRate;			//Mutation rate before the hypermutation burst
+	private int reseed;						//Individuals created again on stagnation
+	private MIDIEvoMetrics metrics = new MIDIEvoMetrics();	//Phase times and counters
+	private MIDIEvoExporter exporter;		//Background export of the best individual (can be null)
+	private long[] chunkRecombination = new long[CHUNKS];	//Nanoseconds of every chunk in the last phase
+	private long[] chunkMutation = new long[CHUNKS];
+	private long[] chunkMutations = new long[CHUNKS];		//Mutated genes of every chunk
+	private long[] chunkRestarts = new long[CHUNKS];		//ROG random restarts of every chunk
+	private static final int CREATE = 0;		//Task: Create random individuals
+	private static final int TOURNAMENT = 1;	//Task: Tournament rounds
+	private static final int OFFSPRING = 2;		//Task: Recombination and mutation
+	private static final int RESEED = 3;		//Task: Create the worst individuals again
+	private static final int MIN_RANGE = 16;	//Minimum number of individuals per chunk
+	private static final int CHUNKS = 64;		//Maximum number of chunks per phase
+
+	/**
+	 * Constructor
+	 * @param midievotrack	Original track
+	 * @param populationSize	Size of the population
+	 * @param tournamentRounds	Tournament rounds per generation
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param strategy	STRATEGY_NONE, STRATEGY_AMR or STRATEGY_ROG
+	 * @param parallelism	Number of worker threads
+	 */
+	public MIDIEvoEngine(MIDIEvoTrack midievotrack, int populationSize, int tournamentRounds,
+			int mode, int strategy, int parallelism){
+		this(midievotrack, populationSize, tournamentRounds, mode, strategy, parallelism,
+				MIDIEvoRandom.newSeed());
+	}
+
+	/**
+	 * Constructor
+	 * @param midievotrack	Original track
+	 * @param populationSize	Size of the population
+	 * @param tournamentRounds	Tournament rounds per generation
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param strategy	STRATEGY_NONE, STRATEGY_AMR or STRATEGY_ROG
+	 * @param parallelism	Number of worker threads
+	 * @param seed	Run seed
+	 */
+	public MIDIEvoEngine(MIDIEvoTrack midievotrack, int populationSize, int tournamentRounds,
+			int mode, int strategy, int parallelism, long seed){
+		this.seed = seed;
+		this.random = new MIDIEvoRandom(seed);
+		this.randoms = new MIDIEvoRandom[CHUNKS];
+		for(int i = 0; i < CHUNKS; i++)
+			randoms[i] = new MIDIEvoRandom(0);
+		this.midievotrack = midievotrack;
+		this.populationSize = populationSize;
+		this.tournamentRounds = tournamentRounds;
+		this.mode = mode;
+		this.strategy = strategy;
+		this.parallelism = Math.max(1, parallelism);
+		if(this.parallelism > 1)
+			pool = new ForkJoinPool(this.parallelism);
+	}
+
+	/**
+	 * Initialization: Create a population of randomly generated individuals
+	 */
+	public void initialize(){
+		offspring = tournamentRounds / 2;
+		population = new MIDIEvoPopulation(populationSize, offspring, midievotrack);
+		population.setUnique(uniqueReplacement);
+		population.setGuided(guidedMutation);
+		selection = new int[tournamentRounds];
+		run(CREATE, populationSize);
+		population.sort();
+	}
+
+	/**
+	 * Resume: Continue the population saved in a checkpoint,
+	 * or create a new random population if there is no valid checkpoint
+	 * @param checkpoint
+	 * @return true if the population was read from the checkpoint
+	 * @throws IOException
+	 */
+	public boolean resume(MIDIEvoCheckpoint checkpoint) throws IOException{
+		offspring = tournamentRounds / 2;
+		population = new MIDIEvoPopulation(populationSize, offspring, midievotrack);
+		population.setUnique(uniqueReplacement);
+		population.setGuided(guidedMutation);
+		selection = new int[tournamentRounds];
+		if(checkpoint.read(this))
+			return true;
+		run(CREATE, populationSize);
+		population.sort();
+		return false;
+	}
+
+	/**
+	 * Restore the state of the engine read from a checkpoint
+	 * (the population, the run stream and the stagnation tracker are read by the checkpoint)
+	 */
+	void restore(long seed, int generation, double mrate, int hyperGenerations, double hyperSavedRate){
+		this.seed = seed;
+		this.generation = generation;
+		this.mrate = mrate;
+		this.hyperGenerations = hyperGenerations;
+		this.hyperSavedRate = hyperSavedRate;
+	}
+
+	/**
+	 * @return generations left of the hypermutation burst (0 = none)
+	 */
+	int getHyperGenerations(){
+		return hyperGenerations;
+	}
+
+	/**
+	 * @return mutation rate restored at the end of the hypermutation burst
+	 */
+	double getHyperSavedRate(){
+		return hyperSavedRate;
+	}
+
+	/**
+	 * Evolution process
+	 * Evolve the population until maxGenerations, a stop request
+	 * or an individual with fitness zero.
+	 * With the AMR strategy the mutation rate is evaluated every mutationTest generations.
+	 * The state is saved in the checkpoint (if any) every checkpointInterval generations and at the end.
+	 * The best individual is offered to the exporter (if any) after every generation and at the end.
+	 * With a stagnation tracker the run stops, mutates more or creates the worst individuals
+	 * again when the best fitness doesn't improve.
+	 * @param maxGenerations	Max number of generations
+	 * @param listener	Progress listener (can be null)
+	 * @return number of generations done
+	 */
+	public int run(int maxGenerations, MIDIEvoListener listener){
+		int saved = generation;
+		metrics.start(generation);
+		if(stagnation != null)
+			stagnation.start(generation, population.getFitness(population.getBest()));
+		while(generation < maxGenerations && !stop){
+			evolve();	//evolve the population
+			if(hyperGenerations > 0 && --hyperGenerations == 0){
+				//End of the hypermutation burst
+				mrate = hyperSavedRate;
+				rateChanged(listener);
+			}
+			//The test depends on the generation so a resumed run tests at the same generations
+			if(strategy == MIDIEvo.STRATEGY_AMR && hyperGenerations == 0 && generation > 1
+					&& (generation - 1) % mutationTest == 0){
+				if(evaluteMutationRate())
+					rateChanged(listener);
+			}
+			boolean stagnated = stagnation != null && stagnation.update(generation,
+					population.getFitness(population.getBest()), (double) population.getDistinct() / populationSize);
+			if(stagnated){
+				if(listener != null)
+					listener.stagnation(this, stagnation);
+				stagnated(listener);
+			}
+			if(checkpoint != null && generation % checkpointInterval == 0){
+				checkpoint();
+				saved = generation;
+			}
+			if(listener != null)
+				listener.generation(this, generation);
+			if(exporter != null)
+				exporter.offer(this, false);
+
+			//If the first element has fitness zero then end.
+			if(population.getFitness(population.getBest()) == 0
+					|| (stagnated && stagnation.getAction() == MIDIEvo.STAGNATION_STOP))
+				break;
+		}
+		if(checkpoint != null && saved != generation)
+			checkpoint();
+		if(exporter != null)
+			exporter.offer(this, true);
+		return generation;
+	}
+
+	/**
+	 * Take the stagnation action: a hypermutation burst or
+	 * create the worst part of the population again
+	 * @param listener	Progress listener (can be null)
+	 */
+	private void stagnated(MIDIEvoListener listener){
+		switch(stagnation.getAction()){
+		case MIDIEvo.STAGNATION_HYPERMUTATION:
+			if(hyperGenerations == 0)
+				hyperSavedRate = mrate;
+			mrate = stagnation.getHyperRate();
+			hyperGenerations = stagnation.getHyperGenerations();
+			rateChanged(listener);
+			break;
+		case MIDIEvo.STAGNATION_RESEED:
+			reseed = Math.min(populationSize - 1, (int) (populationSize * stagnation.getReseedFraction()));
+			if(reseed > 0){
+				run(RESEED, reseed);
+				population.sort();
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Count a change of the mutation rate and notify it
+	 * @param listener	Progress listener (can be null)
+	 */
+	private void rateChanged(MIDIEvoListener listener){
+		metrics.rateChanged();
+		if(listener != null)
+			listener.mutationRateChanged(this);
+	}
+
+	/**
+	 * Track the convergence of the run
+	 * @param stagnation	Stagnation tracker and action (null to stop tracking)
+	 */
+	public void setStagnation(MIDIEvoStagnation stagnation){
+		this.stagnation = stagnation;
+	}
+
+	public MIDIEvoStagnation getStagnation(){
+		return stagnation;
+	}
+
+	/**
+	 * Export the best individual in the background while the run goes on
+	 * @param exporter	Exporter (null to stop exporting)
+	 */
+	public void setExporter(MIDIEvoExporter exporter){
+		this.exporter = exporter;
+	}
+
+	public MIDIEvoExporter getExporter(){
+		return exporter;
+	}
+
+	/**
+	 * Save the state in the checkpoint
+	 */
+	private void checkpoint(){
+		try {
+			checkpoint.write(this);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Save the state of the run periodically
+	 * @param checkpoint	Checkpoint file (null to stop saving)
+	 * @param interval	Generations between checkpoints
+	 */
+	public void setCheckpoint(MIDIEvoCheckpoint checkpoint, int interval){
+		this.checkpoint = checkpoint;
+		this.checkpointInterval = Math.max(1, interval);
+	}
+
+	/**
+	 * Stop the evolution process (after the current generation)
+	 */
+	public void stop(){
+		stop = true;
+	}
+
+	/**
+	 * Method to evolve the population of tracks to match an original track
+	 * This method calls recombination and mutation and then sort by fitness.
+	 * The time of every phase is added to the metrics.
+	 */
+	public void evolve(){
+		long start = System.nanoTime();
+
+		//Natural Selection
+		tournament();
+		long selected = System.nanoTime();
+
+		//Recombination and Mutation of the elements
+		Arrays.fill(chunkRecombination, 0);
+		Arrays.fill(chunkMutation, 0);
+		Arrays.fill(chunkMutations, 0);
+		Arrays.fill(chunkRestarts, 0);
+		run(OFFSPRING, offspring);
+		long created = System.nanoTime();
+
+		//Replacement
+		replacement();
+		long replaced = System.nanoTime();
+
+		generation++;
+
+		//The offspring phase is split in proportion to the time of its parts in the chunks
+		long recombinationTime = 0, mutationTime = 0, mutations = 0, restarts = 0;
+		for(int i = 0; i < CHUNKS; i++){
+			recombinationTime += chunkRecombination[i];
+			mutationTime += chunkMutation[i];
+			mutations += chunkMutations[i];
+			restarts += chunkRestarts[i];
+		}
+		long offspringTime = created - selected;
+		long recombination = recombinationTime + mutationTime == 0 ? 0
+				: (long) ((double) offspringTime * recombinationTime / (recombinationTime + mutationTime));
+		metrics.generation(this, selected - start, recombination, offspringTime - recombination,
+				replaced - created, mutations, restarts);
+	}
+
+	/**
+	 * Selection
+	 * Select tournamentRounds individuals for recombination with the selection
+	 * method (by default a tournament of three: the best of three random individuals).
+	 * The selection keeps the slots of the selected individuals.
+	 */
+	public void tournament(){
+		run(TOURNAMENT, tournamentRounds);
+	}
+
+	/**
+	 * Recombination method
+	 * Create the offspring by recombining every pair of selected individuals.
+	 * With the ROG strategy two equal parents produce a random individual instead.
+	 */
+	public void recombination(){
+		recombination(0, offspring, random);
+	}
+
+	/**
+	 * @return number of random individuals created (ROG)
+	 */
+	private int recombination(int from, int to, MIDIEvoRandom random){
+		int restarts = 0;
+		for(int i = from; i < to; i++){
+			if( strategy == MIDIEvo.STRATEGY_ROG &&
+					population.isEqualTo(selection[2*i], selection[2*i+1])){
+				//Generate random notes and timing and calculate the fitness of the individual
+				population.createRandom(population.getOffspring(i), mode, random);
+				restarts++;
+			}else{
+				recombine(i, selection[2*i], selection[2*i+1], random);
+			}
+		}
+		return restarts;
+	}
+
+	/**
+	 * Create a new individual by recombining two individuals
+	 * Takes randomly one shortmessage of one of the parents, for every shortmessage
+	 * @param child	Offspring number (0..tournamentRounds/2-1) to store the result
+	 * @param ind1	Individual 1 to recombine
+	 * @param ind2	Individual 2 to recombine
+	 * @param random	Random stream
+	 */
+	public void recombine(int child, int ind1, int ind2, MIDIEvoRandom random){
+		population.recombine(population.getOffspring(child), population, ind1, ind2, random);
+	}
+
+	/**
+	 * Mutation method
+	 * Call the mutation method of every individual of the offspring
+	 */
+	public void mutation(){
+		mutation(0, offspring, random);
+	}
+
+	/**
+	 * @return number of mutated genes
+	 */
+	private long mutation(int from, int to, MIDIEvoRandom random){
+		long mutations = 0;
+		for(int i = from; i < to; i++){
+			mutations += population.mutation(population.getOffspring(i), this.mode, this.mrate,
+					this.mutationFields, random);
+		}
+		return mutations;
+	}
+
+	/**
+	 * Replacement
+	 * The worst individuals of the population are replaced by the offspring.
+	 */
+	public void replacement(){
+		population.replaceOffspring();
+	}
+
+	/**
+	 * Copy the best individuals of the population (to send them to another population)
+	 * @param emigrants	Buffer for the copies, reused by every migration
+	 * 		(new MIDIEvoPopulation(migrants, getPopulation())), its size is the number of copies
+	 */
+	public void emigrants(MIDIEvoPopulation emigrants){
+		for(int i = 0; i < emigrants.getSize(); i++)
+			emigrants.copy(i, population, population.getIndividual(i));
+	}
+
+	/**
+	 * Replace the worst individuals of the population with individuals from another population
+	 * @param immigrants	New individuals (same original track)
+	 */
+	public void immigrants(MIDIEvoPopulation immigrants){
+		population.replace(immigrants);
+	}
+
+	/**
+	 * Adaptive Mutation Rate (AMR)
+	 * Increase the mutation rate when the population is too similar and
+	 * decrease it when it's too different.
+	 * The coefficient of variation (rounded to a whole percentage) is kept
+	 * by the population, so the evaluation is O(1).
+	 * @return true if the mutation rate changed
+	 */
+	public boolean evaluteMutationRate(){
+		double coef = Math.round(population.getFitnessCoefficient() * 100);
+		if(coef < baseCoefficient){
+			mrate += 0.05;
+			if(mrate > 0.7)
+				mrate = 0.7;
+			return true;
+		}else if(coef > topCoefficient){
+			mrate -= 0.05;
+			if(mrate < 0.1)
+				mrate = 0.0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Average fitness of the population
+	 * @return average fitness
+	 */
+	public double avgTopFitness(){
+		return population.getMeanFitness();
+	}
+
+	/**
+	 * @param generations	Generations between AMR evaluations (1 = every generation)
+	 */
+	public void setMutationTest(int generations){
+		this.mutationTest = Math.max(1, generations);
+	}
+
+	public int getMutationTest(){
+		return mutationTest;
+	}
+
+	/**
+	 * @param selectionMethod	Parent selection (tournament, linear ranking, SUS or truncation)
+	 */
+	public void setSelection(MIDIEvoSelection selectionMethod){
+		this.selectionMethod = selectionMethod;
+	}
+
+	public MIDIEvoSelection getSelection(){
+		return selectionMethod;
+	}
+
+	/**
+	 * @param fields	Parts of the genes mutated (MUTATE_FIELD_TYPE | MUTATE_FIELD_KEY | MUTATE_FIELD_TICK)
+	 * 		or MUTATE_FIELD_RANDOM (default) for one random part per individual
+	 */
+	public void setMutationFields(int fields){
+		this.mutationFields = fields;
+	}
+
+	public int getMutationFields(){
+		return mutationFields;
+	}
+
+	/**
+	 * Unique replacement: the offspring with the same genes (fingerprint) as an
+	 * individual of the population is rejected instead of replacing the worst one
+	 * @param unique
+	 */
+	public void setUniqueReplacement(boolean unique){
+		this.uniqueReplacement = unique;
+		if(population != null)
+			population.setUnique(unique);
+	}
+
+	public boolean isUniqueReplacement(){
+		return uniqueReplacement;
+	}
+
+	/**
+	 * Guided mutation: only the wrong genes (gene fitness > 0) are mutated, chosen
+	 * in proportion to their error, and only their wrong parts. It only pays off in
+	 * EASY_MODE (in HARD_MODE the tick errors take most of the mutations)
+	 * @param guided
+	 */
+	public void setGuidedMutation(boolean guided){
+		this.guidedMutation = guided;
+		if(population != null)
+			population.setGuided(guided);
+	}
+
+	public boolean isGuidedMutation(){
+		return guidedMutation;
+	}
+
+	/**
+	 * Run an operation over the range 0..size, in the pool if there is one.
+	 * The range is split in chunks and every chunk stream is seeded first.
+	 * @param operation	CREATE, TOURNAMENT, OFFSPRING or RESEED
+	 * @param size	Number of elements
+	 */
+	private void run(int operation, int size){
+		int range = Math.max(MIN_RANGE, (size + CHUNKS - 1) / CHUNKS);
+		int chunks = (size + range - 1) / range;
+		for(int c = 0; c < chunks; c++)
+			randoms[c].setSeed(random.nextLong());
+
+		if(pool == null){
+			for(int c = 0; c < chunks; c++)
+				compute(operation, c, range, size);
+		}else{
+			//The size of every operation doesn't change, so its tasks are created once
+			GenerationTask task = tasks[operation];
+			if(task == null || task.size != size){
+				task = new GenerationTask(operation, 0, chunks, range, size);
+				tasks[operation] = task;
+			}else{
+				task.reset();
+			}
+			pool.invoke(task);
+		}
+	}
+
+	private void compute(int operation, int chunk, int range, int size){
+		int from = chunk * range;
+		int to = Math.min(size, from + range);
+		MIDIEvoRandom random = randoms[chunk];
+		switch(operation){
+		case CREATE:
+			for(int i = from; i < to; i++){
+				//Generate random notes and timing (EASY_MODE copies the timing from the original source)
+				//and calculate the fitness of the individual
+				population.createRandom(i, mode, random);
+			}
+			break;
+		case TOURNAMENT:
+			selectionMethod.select(population, selection, from, to, random);
+			break;
+		case OFFSPRING:
+			long start = System.nanoTime();
+			chunkRestarts[chunk] = recombination(from, to, random);
+			long recombined = System.nanoTime();
+			chunkMutations[chunk] = mutation(from, to, random);
+			chunkRecombination[chunk] = recombined - start;
+			chunkMutation[chunk] = System.nanoTime() - recombined;
+			break;
+		case RESEED:
+			//The worst individuals (the best one is never replaced)
+			for(int i = from; i < to; i++)
+				population.createRandom(population.getIndividual(populationSize - reseed + i), mode, random);
+			break;
+		}
+	}
+
+	/**
+	 * Stop the worker threads
+	 */
+	public void shutdown(){
+		if(pool != null)
+			pool.shutdown();
+	}
+
+	public MIDIEvoPopulation getPopulation(){
+		return population;
+	}
+
+	public MIDIEvoTrack getOriginal(){
+		return midievotrack;
+	}
+
+	public double getMRate(){
+		return mrate;
+	}
+
+	public void setMRate(double mrate){
+		this.mrate = mrate;
+	}
+
+	/**
+	 * @return run stream (seeds the chunk streams of every phase)
+	 */
+	public MIDIEvoRandom getRandom(){
+		return random;
+	}
+
+	public int getPopulationSize(){
+		return populationSize;
+	}
+
+	public int getTournamentRounds(){
+		return tournamentRounds;
+	}
+
+	public int getParallelism(){
+		return parallelism;
+	}
+
+	public long getSeed(){
+		return seed;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public void setName(String name){
+		this.name = name;
+	}
+
+	public int getGeneration(){
+		return generation;
+	}
+
+	/**
+	 * @return phase times and counters of the run
+	 */
+	public MIDIEvoMetrics getMetrics(){
+		return metrics;
+	}
+
+	public int getMode(){
+		return mode;
+	}
+
+	public int getStrategy(){
+		return strategy;
+	}
+
+	/**
+	 * Fork/Join task: splits the chunks in halves until there is only one.
+	 * The whole tree of tasks is created with the root and reused with reset().
+	 */
+	private class GenerationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private int operation;
+		private int from;		//First chunk
+		private int range;		//Elements per chunk
+		private int size;		//Number of elements
+		private GenerationTask left;
+		private GenerationTask right;
+
+		public GenerationTask(int operation, int from, int to, int range, int size){
+			this.operation = operation;
+			this.from = from;
+			this.range = range;
+			this.size = size;
+			if(to - from > 1){
+				int mid = (from + to) >>> 1;
+				left = new GenerationTask(operation, from, mid, range, size);
+				right = new GenerationTask(operation, mid, to, range, size);
+			}
+		}
+
+		/**
+		 * Prepare the tree of tasks to be invoked again
+		 */
+		public void reset(){
+			reinitialize();
+			if(left != null){
+				left.reset();
+				right.reset();
+			}
+		}
+
+		@Override
+		protected void compute() {
+			if(left == null){
+				MIDIEvoEngine.this.compute(operation, from, range, size);
+			}else{
+				invokeAll(left, right);
+			}
+		}
+	}
+}
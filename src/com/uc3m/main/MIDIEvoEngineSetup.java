@@ -0,0 +1,18 @@
+package com.uc3m.main;
+
+/**
+ * Configures the engines created by a model (the windows of a long track):
+ * mutation, selection, replacement and stagnation settings.
+ * Called before the engine is initialized.
+ * 
+ * @author antonio
+ *
+ */
+public interface MIDIEvoEngineSetup {
+
+	/**
+	 * Called for every new engine
+	 * @param engine	New engine (not initialized)
+	 */
+	public void setup(MIDIEvoEngine engine);
+}
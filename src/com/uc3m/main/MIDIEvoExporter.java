@@ -0,0 +1,211 @@
+package com.uc3m.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes the best individual of a running evolution to a MIDI file in the background,
+ * so it can be watched (or played in a DAW) while the run goes on.
+ *
+ * The engine offers its best individual after every generation. When the best fitness
+ * has improved, and at least interval generations and minTime milliseconds have passed
+ * since the last snapshot, an immutable copy of its genes is handed to the exporter
+ * thread. The handoff has a single slot: a snapshot that is still waiting when a better
+ * one arrives is dropped, so the evolution thread never waits for the disk. The exporter
+ * thread encodes the snapshot (MIDIEvoMidiWriter), writes it to file.tmp and moves it
+ * over the file, so a reader never sees a half written file.
+ *
+ * The last best individual of a run is always offered (engine.run), and close waits
+ * until it's written. An exporter can be shared by the islands of a model (it only
+ * takes the snapshots that improve the best fitness offered by any of them).
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoExporter implements Runnable {
+
+	private File file;
+	private File tmpFile;				//Written and moved over the file
+	private float divisionType;			//Sequence.PPQ or a SMPTE type
+	private int resolution;
+	private int interval;				//Min generations between snapshots
+	private long minNanos;				//Min time between snapshots
+	private MIDIEvoMidiWriter writer = new MIDIEvoMidiWriter();	//Only used by the exporter thread
+	private Thread thread;
+	private MIDIEvoSnapshot pending;	//Snapshot waiting to be written (null = none)
+	private boolean closed = false;
+	private boolean offered = false;	//Some snapshot was taken
+	private long offeredFitness = Long.MAX_VALUE;	//Fitness of the last snapshot
+	private int offeredGeneration;		//Generation of the last snapshot
+	private long offeredTime;			//Time of the last snapshot
+	private long writtenFitness = Long.MAX_VALUE;	//Fitness of the last snapshot written
+	private int writtenGeneration = -1;	//Generation of the last snapshot written
+	private long exported = 0;			//Snapshots written
+	private long dropped = 0;			//Snapshots replaced before they were written
+	private long failed = 0;			//Snapshots that couldn't be written
+
+	/**
+	 * Constructor: Start the exporter thread
+	 * @param file	MIDI file (replaced by every snapshot)
+	 * @param divisionType	Sequence.PPQ or a SMPTE type
+	 * @param resolution
+	 * @param interval	Min generations between snapshots
+	 * @param minTime	Min milliseconds between snapshots
+	 */
+	public MIDIEvoExporter(File file, float divisionType, int resolution, int interval, long minTime){
+		this.file = file;
+		this.tmpFile = new File(file.getPath()+".tmp");
+		this.divisionType = divisionType;
+		this.resolution = resolution;
+		this.interval = Math.max(1, interval);
+		this.minNanos = Math.max(0, minTime) * 1000000L;
+		thread = new Thread(this, "midievo-exporter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Offer the best individual of an engine (called by the engine after every generation).
+	 * Only copies it if the best fitness has improved and enough generations and time have passed.
+	 * @param engine
+	 * @param force	Ignore the generations and time since the last snapshot (end of the run)
+	 */
+	public void offer(MIDIEvoEngine engine, boolean force){
+		MIDIEvoPopulation population = engine.getPopulation();
+		int best = population.getBest();
+		long fitness = population.getFitness(best);
+		int generation = engine.getGeneration();
+		long now = System.nanoTime();
+		synchronized(this){
+			if(closed || fitness >= offeredFitness)
+				return;
+			if(offered && !force && (generation - offeredGeneration < interval || now - offeredTime < minNanos))
+				return;
+			offered = true;
+			offeredFitness = fitness;
+			offeredGeneration = generation;
+			offeredTime = now;
+		}
+		//The copy is made out of the lock (the exporter thread never waits for it)
+		MIDIEvoSnapshot snapshot = new MIDIEvoSnapshot(population, best, generation);
+		synchronized(this){
+			if(pending != null){
+				if(pending.getFitness() <= snapshot.getFitness())
+					return;
+				dropped++;
+			}
+			pending = snapshot;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Exporter thread: write the snapshots until the exporter is closed
+	 */
+	@Override
+	public void run(){
+		while(true){
+			MIDIEvoSnapshot snapshot;
+			synchronized(this){
+				while(pending == null && !closed){
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						closed = true;
+					}
+				}
+				if(pending == null)
+					return;
+				snapshot = pending;
+				pending = null;
+			}
+			if(snapshot.getFitness() >= writtenFitness)
+				continue;
+			try {
+				write(snapshot);
+				synchronized(this){
+					writtenFitness = snapshot.getFitness();
+					writtenGeneration = snapshot.getGeneration();
+					exported++;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				synchronized(this){
+					failed++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encode a snapshot and replace the file
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	private void write(MIDIEvoSnapshot snapshot) throws IOException{
+		MIDIEvoMidiWriter.write(writer.encode(snapshot, divisionType, resolution), tmpFile);
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Stop taking snapshots and wait until the pending one is written
+	 */
+	public void close(){
+		synchronized(this){
+			closed = true;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * @return number of snapshots written
+	 */
+	public synchronized long getExported(){
+		return exported;
+	}
+
+	/**
+	 * @return number of snapshots replaced by a better one before they were written
+	 */
+	public synchronized long getDropped(){
+		return dropped;
+	}
+
+	/**
+	 * @return number of snapshots that couldn't be written
+	 */
+	public synchronized long getFailed(){
+		return failed;
+	}
+
+	/**
+	 * @return generation of the last snapshot written (-1 = none)
+	 */
+	public synchronized int getWrittenGeneration(){
+		return writtenGeneration;
+	}
+
+	/**
+	 * @return fitness of the last snapshot written (Long.MAX_VALUE = none)
+	 */
+	public synchronized long getWrittenFitness(){
+		return writtenFitness;
+	}
+}
@@ -0,0 +1,110 @@
+package com.uc3m.main;
+
+import java.util.Arrays;
+
+/**
+ * Multiset of 64-bit genome fingerprints (open addressing, linear probing).
+ * Keys and counts are kept in two primitive arrays, so adding and removing
+ * fingerprints doesn't allocate. Removal shifts the following entries back,
+ * so there are no tombstones and lookups never get slower.
+ *
+ * The capacity is fixed (a power of two, at least twice the number of keys).
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoFingerprintSet {
+
+	private long[] keys;	//Fingerprints
+	private int[] counts;	//Number of individuals with every fingerprint (0 = empty)
+	private int mask;		//Capacity - 1
+	private int size;		//Number of different fingerprints
+
+	/**
+	 * Constructor
+	 * @param expected	Max number of fingerprints
+	 */
+	public MIDIEvoFingerprintSet(int expected){
+		int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+		keys = new long[capacity];
+		counts = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private int index(long key){
+		return (int) MIDIEvoRandom.mix64(key) & mask;
+	}
+
+	/**
+	 * @param key	Fingerprint
+	 * @return true if some individual has the fingerprint
+	 */
+	public boolean contains(long key){
+		for(int i = index(key); counts[i] != 0; i = (i + 1) & mask)
+			if(keys[i] == key)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Add one individual with a fingerprint
+	 * @param key	Fingerprint
+	 * @return true if the fingerprint was new
+	 */
+	public boolean add(long key){
+		int i = index(key);
+		for(; counts[i] != 0; i = (i + 1) & mask){
+			if(keys[i] == key){
+				counts[i]++;
+				return false;
+			}
+		}
+		if(size == mask)
+			throw new IllegalStateException("Fingerprint set is full");
+		keys[i] = key;
+		counts[i] = 1;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Remove one individual with a fingerprint
+	 * @param key	Fingerprint
+	 */
+	public void remove(long key){
+		int i = index(key);
+		for(; counts[i] != 0; i = (i + 1) & mask)
+			if(keys[i] == key)
+				break;
+		if(counts[i] == 0 || --counts[i] > 0)
+			return;
+		size--;
+		//Shift back the following entries of the run that can take the empty position
+		int empty = i;
+		for(int j = (i + 1) & mask; counts[j] != 0; j = (j + 1) & mask){
+			int home = index(keys[j]);
+			//Move j to empty if its home position is not between empty (exclusive) and j
+			if(((j - home) & mask) >= ((j - empty) & mask)){
+				keys[empty] = keys[j];
+				counts[empty] = counts[j];
+				counts[j] = 0;
+				empty = j;
+			}
+		}
+	}
+
+	/**
+	 * Remove every fingerprint
+	 */
+	public void clear(){
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/**
+	 * @return number of different fingerprints
+	 */
+	public int size(){
+		return size;
+	}
+}
@@ -0,0 +1,107 @@
+package com.uc3m.main;
+
+/**
+ * Fitness of a whole individual over packed gene arrays.
+ * The fitness of a gene is |type - target type| + |key - target key| + |tick - target tick|
+ * (types unsigned), saturated at MAX_GENE_FITNESS so it fits the int gene fitness array
+ * (tick distances above it count as MAX_GENE_FITNESS). Every gene fitness is stored
+ * and the total is the sum of the stored values.
+ *
+ * The default kernel uses the Vector API (jdk.incubator.vector) when the
+ * MIDIEvoVectorKernel class is compiled (source folder vector, JDK 17+) and the
+ * module is added (java --add-modules jdk.incubator.vector), otherwise the scalar
+ * loop. The system property midievo.kernel=scalar forces the scalar loop.
+ * The vector folder is not part of the Eclipse project (Java 7), it's compiled
+ * into bin after the project is built (see docs/BUILD.md). getName() tells
+ * which kernel is used (the CLI prints it).
+ *
+ * @author antonio
+ *
+ */
+public abstract class MIDIEvoFitnessKernel {
+
+	public static final int MAX_GENE_FITNESS = Integer.MAX_VALUE;	//Bound of the fitness of a gene
+	private static final String VECTOR_KERNEL = "com.uc3m.main.MIDIEvoVectorKernel";
+	private static final MIDIEvoFitnessKernel SCALAR = new Scalar();
+	private static MIDIEvoFitnessKernel preferred;	//Kernel used by default (loaded once)
+
+	/**
+	 * Fitness of the genes base..base+genes
+	 * @param targetTypes	Types of the original track
+	 * @param targetKeys	Keys of the original track
+	 * @param targetTicks	Ticks of the original track
+	 * @param types	Types of the individuals
+	 * @param keys	Keys of the individuals
+	 * @param ticks	Ticks of the individuals
+	 * @param base	First gene of the individual
+	 * @param geneFitness	Fitness of every gene (result)
+	 * @param genes	Number of genes
+	 * @return total fitness
+	 */
+	public abstract long fitness(byte[] targetTypes, byte[] targetKeys, long[] targetTicks,
+			byte[] types, byte[] keys, long[] ticks, int base, int[] geneFitness, int genes);
+
+	/**
+	 * @return name of the kernel
+	 */
+	public abstract String getName();
+
+	/**
+	 * Fitness of a gene (saturated)
+	 * @param distance	|type - target type| + |key - target key| + |tick - target tick|
+	 * @return min(distance, MAX_GENE_FITNESS)
+	 */
+	public static int geneFitness(long distance){
+		return distance < MAX_GENE_FITNESS ? (int) distance : MAX_GENE_FITNESS;
+	}
+
+	/**
+	 * @return scalar kernel
+	 */
+	public static MIDIEvoFitnessKernel scalar(){
+		return SCALAR;
+	}
+
+	/**
+	 * @return vector kernel if it's available, otherwise the scalar kernel
+	 */
+	public static synchronized MIDIEvoFitnessKernel get(){
+		if(preferred == null){
+			preferred = SCALAR;
+			if(!"scalar".equalsIgnoreCase(System.getProperty("midievo.kernel"))){
+				try {
+					preferred = (MIDIEvoFitnessKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+				} catch (Exception | LinkageError e) {
+					//Not compiled, module not added or no vector hardware: scalar loop
+				}
+			}
+		}
+		return preferred;
+	}
+
+	/**
+	 * Scalar loop
+	 */
+	private static class Scalar extends MIDIEvoFitnessKernel {
+
+		@Override
+		public long fitness(byte[] targetTypes, byte[] targetKeys, long[] targetTicks,
+				byte[] types, byte[] keys, long[] ticks, int base, int[] geneFitness, int genes){
+			long total = 0;
+			for(int i = 0; i < genes; i++){
+				int pos = base + i;
+				int noteDiff = (targetTypes[i] & 0xFF) - (types[pos] & 0xFF);
+				int keyDiff = targetKeys[i] - keys[pos];
+				long tickDiff = targetTicks[i] - ticks[pos];
+				geneFitness[pos] = geneFitness(Math.abs(noteDiff) + Math.abs(keyDiff) + Math.abs(tickDiff));
+				total += geneFitness[pos];
+			}
+			return total;
+		}
+
+		@Override
+		public String getName(){
+			return "scalar";
+		}
+	}
+}
@@ -10,9 +10,11 @@ import java.awt.GraphicsEnvironment;
 import java.awt.GridLayout;
 import java.awt.Image;
 import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 
 import javax.swing.Box;
 import javax.swing.ButtonGroup;
@@ -24,6 +26,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
+import javax.swing.Timer;
 import javax.swing.border.MatteBorder;
 
 public class MIDIEvoGUI {
@@ -40,6 +43,7 @@ public class MIDIEvoGUI {
 	private JFormattedTextField population;
 	private JFormattedTextField tournaments;
 	private JFormattedTextField generations;
+	private JFormattedTextField threads;
 	private JButton start;
 	private JButton best;
 	private JButton worst;
@@ -49,6 +53,15 @@ public class MIDIEvoGUI {
 	private JFileChooser fc;
 	private JRadioButton mode1, mode2;
 	private JRadioButton stra1, stra2, stra3;
+	private HashMap<String, ImageIcon> icons = new HashMap<String, ImageIcon>();	//Loaded icons
+	private Timer progressTimer;					//Renders the progress on the EDT
+	private MIDIEvoProgress progress;				//Progress written by the evolution thread
+	private MIDIEvoProgress snapshot = new MIDIEvoProgress();	//Last progress read
+	private long shownSequence;						//Sequence of the progress on screen
+	private long shownBest, shownWorst;
+	private int shownGeneration;
+	private double shownMRate;
+	public static final int FRAME_RATE = 20;		//Progress updates per second
 	
 	public MIDIEvoGUI(ActionListener listen){
 		try {
@@ -73,6 +86,7 @@ public class MIDIEvoGUI {
 		population = text(5000);
 		generations = text(20000);
 		tournaments = text(3000);
+		threads = text(Runtime.getRuntime().availableProcessors());
 		
 		start = button("start");
 		best = button("playbest");
@@ -91,7 +105,7 @@ public class MIDIEvoGUI {
 		window.setIconImage(img);
 		JPanel containerPanel = new JPanel(new FlowLayout());
 		containerPanel.setBackground(Color.darkGray);
-		JLabel back = new JLabel(new ImageIcon(getClass().getResource("/MIDIEvoLogo3.png")));
+		JLabel back = new JLabel(icon("MIDIEvoLogo3"));
 		
 		JPanel mainPanel = new JPanel(new BorderLayout());
 		mainPanel.setBackground(Color.darkGray);
@@ -151,6 +165,7 @@ public class MIDIEvoGUI {
 		JLabel l_population = label(" Population: ");
 		JLabel l_repalcement = label(" Tournaments: ");
 		JLabel l_generations = label(" Generations: ");
+		JLabel l_threads = label(" Threads: ");
 		JLabel l_bestfitness = label(" Best Fitness: ");
 		JLabel l_worstfitness = label(" Worst Fitness: ");
 		JLabel l_gen = label(" Current Gen: ");
@@ -189,8 +204,8 @@ public class MIDIEvoGUI {
 		parameterPanelRight.add(generations);
 		parameterPanelRight.add(l_mrate);
 		parameterPanelRight.add(mrate);
-		parameterPanelRight.add(new JLabel(""));
-		parameterPanelRight.add(new JLabel(""));
+		parameterPanelRight.add(l_threads);
+		parameterPanelRight.add(threads);
 		parameterPanelRight.add(l_worstfitness);
 		parameterPanelRight.add(worstfit);
 		parameterPanelRight.add(l_status);
@@ -218,17 +233,31 @@ public class MIDIEvoGUI {
 	}
 	
 	private JButton button(String buttonname){
-		JButton button = new JButton("", new ImageIcon(getClass().getResource("/"+buttonname+".png")));
+		JButton button = new JButton("", icon(buttonname));
 		button.setFocusPainted(false);
 		button.setOpaque(false);
 		button.setContentAreaFilled(false);
 		button.setBorder(null);
-		button.setPressedIcon(new ImageIcon(getClass().getResource("/"+buttonname+"P.png")));
+		button.setPressedIcon(icon(buttonname+"P"));
 		button.setActionCommand(buttonname);
 		button.addActionListener(listener);
 		return button;
 	}
 	
+	/**
+	 * Load an icon from the classpath (only the first time)
+	 * @param name	Image name (without .png)
+	 * @return icon
+	 */
+	private ImageIcon icon(String name){
+		ImageIcon icon = icons.get(name);
+		if(icon == null){
+			icon = new ImageIcon(getClass().getResource("/"+name+".png"));
+			icons.put(name, icon);
+		}
+		return icon;
+	}
+	
 	private JLabel label(String label, Color color){
 		JLabel jlabel = new JLabel(label);
 		jlabel.setFont(baseFont);
@@ -262,8 +291,8 @@ public class MIDIEvoGUI {
 				command = "play";
 			}
 		}
-		orig.setIcon(new ImageIcon(getClass().getResource("/"+command+"orig.png")));
-		orig.setPressedIcon(new ImageIcon(getClass().getResource("/"+command+"origP.png")));
+		orig.setIcon(icon(command+"orig"));
+		orig.setPressedIcon(icon(command+"origP"));
 		orig.setActionCommand(command+"orig");
 	}
 	
@@ -279,8 +308,8 @@ public class MIDIEvoGUI {
 				command = "play";
 			}
 		}
-		best.setIcon(new ImageIcon(getClass().getResource("/"+command+"best.png")));
-		best.setPressedIcon(new ImageIcon(getClass().getResource("/"+command+"bestP.png")));
+		best.setIcon(icon(command+"best"));
+		best.setPressedIcon(icon(command+"bestP"));
 		best.setActionCommand(command+"best");
 	}
 	
@@ -296,23 +325,81 @@ public class MIDIEvoGUI {
 				command = "play";
 			}
 		}
-		worst.setIcon(new ImageIcon(getClass().getResource("/"+command+"worst.png")));
-		worst.setPressedIcon(new ImageIcon(getClass().getResource("/"+command+"worstP.png")));
+		worst.setIcon(icon(command+"worst"));
+		worst.setPressedIcon(icon(command+"worstP"));
 		worst.setActionCommand(command+"worst");
 	}
 	
 	public void switchEvo(){
 		if(start.getActionCommand().startsWith("start")){
-			start.setIcon(new ImageIcon(getClass().getResource("/stop.png")));
-			start.setPressedIcon(new ImageIcon(getClass().getResource("/stopP.png")));
+			start.setIcon(icon("stop"));
+			start.setPressedIcon(icon("stopP"));
 			start.setActionCommand("stop");
 		}else{
-			start.setIcon(new ImageIcon(getClass().getResource("/start.png")));
-			start.setPressedIcon(new ImageIcon(getClass().getResource("/startP.png")));
+			start.setIcon(icon("start"));
+			start.setPressedIcon(icon("startP"));
 			start.setActionCommand("start");
 		}
 	}
 	
+	/**
+	 * Start rendering the progress of a run FRAME_RATE times per second (call on the EDT)
+	 * @param progress	Progress written by the evolution thread
+	 */
+	public void startProgress(MIDIEvoProgress progress){
+		this.progress = progress;
+		shownSequence = progress.read(snapshot);
+		shownBest = shownWorst = -1;
+		shownGeneration = -1;
+		shownMRate = snapshot.getMRate();
+		if(progressTimer == null){
+			progressTimer = new Timer(1000 / FRAME_RATE, new ActionListener(){
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					showProgress();
+				}
+			});
+		}
+		progressTimer.start();
+	}
+	
+	/**
+	 * Render the last progress and stop the timer (call on the EDT)
+	 */
+	public void stopProgress(){
+		if(progressTimer != null)
+			progressTimer.stop();
+		showProgress();
+	}
+	
+	/**
+	 * Update the labels that changed since the last frame
+	 */
+	private void showProgress(){
+		if(progress == null)
+			return;
+		long seq = progress.read(snapshot);
+		if(seq == shownSequence)
+			return;
+		shownSequence = seq;
+		if(snapshot.getBest() != shownBest){
+			shownBest = snapshot.getBest();
+			bestfit.setText(""+shownBest);
+		}
+		if(snapshot.getWorst() != shownWorst){
+			shownWorst = snapshot.getWorst();
+			worstfit.setText(""+shownWorst);
+		}
+		if(snapshot.getGeneration() != shownGeneration){
+			shownGeneration = snapshot.getGeneration();
+			currgen.setText(""+shownGeneration);
+		}
+		if(snapshot.getMRate() != shownMRate){
+			shownMRate = snapshot.getMRate();
+			mrate.setText(shownMRate*100+"%");
+		}
+	}
+	
 	public File selectFile(){
 		File file = null;
 		int ret = fc.showOpenDialog(window);
@@ -387,6 +474,14 @@ public class MIDIEvoGUI {
 		this.generations.setValue(generations);
 	}
 	
+	public int getThreads() {
+		return (Integer) threads.getValue();
+	}
+
+	public void setThreads(int threads) {
+		this.threads.setValue(threads);
+	}
+	
 	public String getStatus() {
 		return status.getText();
 	}
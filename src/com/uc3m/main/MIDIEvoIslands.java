@@ -0,0 +1,238 @@
+package com.uc3m.main;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Island model.
+ * N independent populations (islands) of the same original track, each one
+ * evolved by its own MIDIEvoEngine on its own thread. Every island can use
+ * a different strategy and initial mutation rate.
+ *
+ * Every migrationInterval generations each island sends a copy of its best
+ * individuals to the next island (ring), and after every generation it replaces
+ * its worst individuals with the last migrants sent by the previous island, if
+ * there are new ones. The handoff never blocks and never allocates: every link of
+ * the ring has three migrant buffers (triple buffering). The sender fills its own
+ * buffer and swaps it with the shared one, the receiver swaps the shared one with
+ * its own buffer when it's new, so migrants that were not received yet are replaced
+ * by the newer ones. Which generation receives the migrants depends on the timing
+ * of the threads.
+ *
+ * Barrier mode (setBarrier, opt-in) makes the migrations reproducible at the cost of
+ * running the islands in lockstep: every migrationInterval generations the islands
+ * wait for each other, send, wait again and receive, so every island receives the
+ * same migrants at the same generation and the same seed reproduces the same run.
+ * An island that has finished (stagnation stop) leaves the barrier.
+ *
+ * The run ends when every island reaches maxGenerations, or as soon as one island
+ * finds an individual with fitness zero (every island stops after its current
+ * generation, so the generation where the others stop depends on the timing).
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoIslands {
+
+	private static final int FRESH = 4;	//Shared buffer not received yet (flag of the link state)
+	private MIDIEvoEngine[] islands;
+	private MIDIEvoPopulation[][] buffers;	//Migrant buffers of every link (island -> next), 3 per link
+	private AtomicInteger[] shared;		//Shared buffer of every link (index | FRESH)
+	private int[] back;					//Buffer filled by the sender of every link
+	private int[] front;				//Buffer read by the receiver of every link
+	private boolean useBarrier = false;	//Reproducible migrations (lockstep)
+	private Phaser barrier;				//Migrations in barrier mode (the islands that finish leave it)
+	private int[] sent;					//Barrier mode: generation of the migrants of every island (-1 = none)
+	private int migrationInterval;		//Generations between migrations
+	private int migrants;				//Individuals sent on every migration
+	private MIDIEvoListener listener;
+	private volatile boolean finished = false;
+
+	/**
+	 * Constructor
+	 * @param midievotrack	Original track
+	 * @param islands	Number of islands
+	 * @param populationSize	Size of the population of every island
+	 * @param tournamentRounds	Tournament rounds per generation of every island
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param strategies	Strategy of every island (repeated if there are less strategies than islands)
+	 * @param mrates	Initial mutation rate of every island (repeated if there are less rates than islands)
+	 * @param migrationInterval	Generations between migrations
+	 * @param migrants	Individuals sent on every migration
+	 * @param seed	Run seed
+	 */
+	public MIDIEvoIslands(MIDIEvoTrack midievotrack, int islands, int populationSize, int tournamentRounds,
+			int mode, int[] strategies, double[] mrates, int migrationInterval, int migrants, long seed){
+		this.islands = new MIDIEvoEngine[islands];
+		this.buffers = new MIDIEvoPopulation[islands][];
+		this.shared = new AtomicInteger[islands];
+		this.back = new int[islands];
+		this.front = new int[islands];
+		this.sent = new int[islands];
+		this.migrationInterval = Math.max(1, migrationInterval);
+		this.migrants = Math.min(migrants, populationSize);
+		MIDIEvoRandom random = new MIDIEvoRandom(seed);
+		for(int i = 0; i < islands; i++){
+			this.islands[i] = new MIDIEvoEngine(midievotrack, populationSize, tournamentRounds,
+					mode, strategies[i % strategies.length], 1, random.nextLong());
+			this.islands[i].setMRate(mrates[i % mrates.length]);
+			this.islands[i].setName("island-"+i);
+		}
+	}
+
+	/**
+	 * Barrier mode: the islands migrate at the same generations and wait for each other,
+	 * so the same seed reproduces the same run (slower, every migration waits for the
+	 * slowest island)
+	 * @param barrier
+	 */
+	public void setBarrier(boolean barrier){
+		this.useBarrier = barrier;
+	}
+
+	public boolean isBarrier(){
+		return useBarrier;
+	}
+
+	/**
+	 * Initialize and evolve every island on its own thread and wait for all of them.
+	 * @param maxGenerations	Max number of generations
+	 * @param listener	Progress listener of every island (called from the island threads, can be null)
+	 * @return number of generations done by the island that did most
+	 */
+	public int run(int maxGenerations, MIDIEvoListener listener){
+		this.listener = listener;
+		this.barrier = useBarrier ? new Phaser(islands.length) : null;
+		for(int i = 0; i < islands.length; i++){
+			//Link i -> i+1: the sender has buffer 0, the shared one is 1 (not fresh), the receiver has 2
+			shared[i] = new AtomicInteger(1);
+			back[i] = 0;
+			front[i] = 2;
+			sent[i] = -1;
+		}
+		Thread[] threads = new Thread[islands.length];
+		for(int i = 0; i < islands.length; i++){
+			threads[i] = new Thread(new Island(i, maxGenerations), "MIDIEvo-island-"+i);
+			threads[i].start();
+		}
+		int generations = 0;
+		for(int i = 0; i < islands.length; i++){
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				stop();
+				Thread.currentThread().interrupt();
+			}
+			generations = Math.max(generations, islands[i].getGeneration());
+		}
+		return generations;
+	}
+
+	/**
+	 * Stop every island (after its current generation)
+	 */
+	public void stop(){
+		finished = true;
+		for(MIDIEvoEngine island : islands)
+			island.stop();
+	}
+
+	/**
+	 * @return the island with the best individual
+	 */
+	public MIDIEvoEngine getBestIsland(){
+		MIDIEvoEngine best = islands[0];
+		for(MIDIEvoEngine island : islands){
+			MIDIEvoPopulation pop = island.getPopulation();
+			MIDIEvoPopulation bestPop = best.getPopulation();
+			if(pop != null && (bestPop == null
+					|| pop.getFitness(pop.getBest()) < bestPop.getFitness(bestPop.getBest())))
+				best = island;
+		}
+		return best;
+	}
+
+	public MIDIEvoEngine[] getIslands(){
+		return islands;
+	}
+
+	/**
+	 * Evolution of one island
+	 */
+	private class Island implements Runnable, MIDIEvoListener {
+
+		private int index;
+		private int maxGenerations;
+
+		public Island(int index, int maxGenerations){
+			this.index = index;
+			this.maxGenerations = maxGenerations;
+		}
+
+		@Override
+		public void run() {
+			MIDIEvoEngine engine = islands[index];
+			try {
+				engine.initialize();
+				if(migrants > 0 && buffers[index] == null){
+					MIDIEvoPopulation[] link = new MIDIEvoPopulation[3];
+					for(int i = 0; i < link.length; i++)
+						link[i] = new MIDIEvoPopulation(migrants, engine.getPopulation());
+					buffers[index] = link;
+				}
+				if(!finished)
+					engine.run(maxGenerations, this);
+			} finally {
+				if(barrier != null)
+					barrier.arriveAndDeregister();
+			}
+		}
+
+		@Override
+		public void generation(MIDIEvoEngine engine, int generation) {
+			int previous = (index + islands.length - 1) % islands.length;
+			if(migrants > 0 && barrier != null){
+				if(generation % migrationInterval == 0){
+					//Send to the own buffer, wait for every island, receive the previous island's buffer
+					engine.emigrants(buffers[index][0]);
+					sent[index] = generation;
+					barrier.arriveAndAwaitAdvance();
+					if(sent[previous] == generation)
+						engine.immigrants(buffers[previous][0]);
+					barrier.arriveAndAwaitAdvance();
+				}
+			}else if(migrants > 0){
+				//Receive: the last migrants of the previous island, if they are new
+				//(FRESH is set after the buffers are created, so they are visible)
+				if((shared[previous].get() & FRESH) != 0){
+					front[previous] = shared[previous].getAndSet(front[previous]) & ~FRESH;
+					engine.immigrants(buffers[previous][front[previous]]);
+				}
+				//Send: fill the own buffer and swap it with the shared one
+				if(generation % migrationInterval == 0){
+					engine.emigrants(buffers[index][back[index]]);
+					back[index] = shared[index].getAndSet(back[index] | FRESH) & ~FRESH;
+				}
+			}
+
+			MIDIEvoPopulation population = engine.getPopulation();
+			if(population.getFitness(population.getBest()) == 0)
+				stop();
+
+			if(listener != null)
+				listener.generation(engine, generation);
+		}
+
+		@Override
+		public void mutationRateChanged(MIDIEvoEngine engine) {
+			if(listener != null)
+				listener.mutationRateChanged(engine);
+		}
+
+		@Override
+		public void stagnation(MIDIEvoEngine engine, MIDIEvoStagnation stagnation) {
+			if(listener != null)
+				listener.stagnation(engine, stagnation);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.uc3m.main;
+
+/**
+ * Receives the progress of an evolution run (MIDIEvoEngine.run).
+ * Called from the evolution thread.
+ * 
+ * @author antonio
+ *
+ */
+public interface MIDIEvoListener {
+
+	/**
+	 * Called after every generation
+	 * @param engine	Engine running the evolution
+	 * @param generation	Number of generations done
+	 */
+	public void generation(MIDIEvoEngine engine, int generation);
+	
+	/**
+	 * Called when the AMR strategy changes the mutation rate
+	 * @param engine	Engine running the evolution
+	 */
+	public void mutationRateChanged(MIDIEvoEngine engine);
+
+	/**
+	 * Called when the run stagnates (before the stagnation action is taken)
+	 * @param engine	Engine running the evolution
+	 * @param stagnation	Convergence tracking of the run
+	 */
+	public void stagnation(MIDIEvoEngine engine, MIDIEvoStagnation stagnation);
+}
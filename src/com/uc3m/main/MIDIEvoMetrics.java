@@ -0,0 +1,439 @@
+package com.uc3m.main;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a running engine, updated by the engine after every generation.
+ *
+ * Phase times (tournament, recombination, mutation and replacement) are wall
+ * nanoseconds: recombination and mutation run in the same parallel phase, so
+ * its time is split in proportion to the time of every part in the worker threads.
+ * Counters: mutated genes, ROG random restarts, AMR (and hypermutation) mutation
+ * rate changes, genes evaluated and bytes allocated by the evolution thread.
+ * Generations and genes evaluated per second are measured about every second.
+ *
+ * The metrics can be published as a JMX MBean (register), written every some
+ * generations to a CSV file that is rolled over at a max size (setCsv) and
+ * recorded as JFR events (setFlightRecorder, needs the jfr source folder compiled
+ * into bin, JDK 11+, see docs/BUILD.md).
+ *
+ * Only the evolution thread updates the metrics. The values are published like
+ * MIDIEvoProgress: volatile fields protected by a sequence number (seqlock), so the
+ * update never blocks or allocates (unless a CSV line is written) and readers (JMX,
+ * GUI) get a consistent copy with read. The configuration methods are synchronized.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoMetrics implements MIDIEvoMetricsMBean {
+
+	/**
+	 * Receives the metrics of every generation
+	 */
+	public interface Recorder {
+		void generation(String name, MIDIEvoMetrics metrics);
+	}
+
+	private static final String FLIGHT_RECORDER = "com.uc3m.main.MIDIEvoFlightRecorder";
+	private static final long RATE_INTERVAL = 1000000000L;	//Nanoseconds between rate measurements
+	private static final String CSV_HEADER = "time_ms,generation,best,worst,mean,mrate,generations_per_sec,"
+			+ "genes_per_sec,tournament_ns,recombination_ns,mutation_ns,replacement_ns,mutations,"
+			+ "random_restarts,rate_changes,genes_evaluated,allocated_bytes";
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private volatile String name = "engine";
+	private volatile long sequence = 0;	//Odd while an update is in progress
+	private volatile int generation;
+	private volatile long best;
+	private volatile long worst;
+	private volatile double mean;
+	private volatile double mrate;
+	private volatile long tournamentNanos;		//Totals of the run
+	private volatile long recombinationNanos;
+	private volatile long mutationNanos;
+	private volatile long replacementNanos;
+	private volatile long mutations;
+	private volatile long restarts;
+	private volatile long rateChanges;
+	private volatile long genesEvaluated;
+	private volatile long allocatedBytes;
+	private volatile long lastTournament;		//Last generation
+	private volatile long lastRecombination;
+	private volatile long lastMutation;
+	private volatile long lastReplacement;
+	private volatile long lastMutations;
+	private volatile long lastRestarts;
+	private long allocationThread = -1;	//Thread of the last allocation reading
+	private long allocationStart;		//Allocated bytes of the thread at the last reading
+	private long startTime = System.nanoTime();
+	private long rateTime = startTime;	//Start of the rate measurement
+	private int rateGeneration;
+	private long rateGenes;
+	private volatile double generationsPerSecond;
+	private volatile double genesPerSecond;
+	private ObjectName objectName;		//Registered MBean (null if not registered)
+	private volatile Writer csv;		//CSV file (null if not written)
+	private File csvFile;
+	private volatile int csvInterval;	//Generations between CSV lines
+	private long csvMaxBytes;			//Size of the CSV file to roll it over
+	private long csvBytes;				//Size of the current CSV file
+	private volatile Recorder recorder;	//JFR events (null if not recorded)
+
+	/**
+	 * Update the metrics after a generation (called by the engine)
+	 * @param engine
+	 * @param tournament	Nanoseconds of the tournament
+	 * @param recombination	Nanoseconds of the recombination
+	 * @param mutation	Nanoseconds of the mutation
+	 * @param replacement	Nanoseconds of the replacement
+	 * @param mutated	Genes mutated
+	 * @param restarted	ROG random restarts
+	 */
+	public void generation(MIDIEvoEngine engine, long tournament, long recombination,
+			long mutation, long replacement, long mutated, long restarted){
+		MIDIEvoPopulation population = engine.getPopulation();
+		long seq = sequence;
+		sequence = seq + 1;
+		generation = engine.getGeneration();
+		best = population.getFitness(population.getBest());
+		worst = population.getFitness(population.getWorst());
+		mean = population.getMeanFitness();
+		mrate = engine.getMRate();
+		lastTournament = tournament;
+		lastRecombination = recombination;
+		lastMutation = mutation;
+		lastReplacement = replacement;
+		lastMutations = mutated;
+		lastRestarts = restarted;
+		tournamentNanos += tournament;
+		recombinationNanos += recombination;
+		mutationNanos += mutation;
+		replacementNanos += replacement;
+		mutations += mutated;
+		restarts += restarted;
+		genesEvaluated += mutated + restarted * population.getGenes();
+		allocation();
+
+		long now = System.nanoTime();
+		if(now - rateTime >= RATE_INTERVAL){
+			double seconds = (now - rateTime) / 1e9;
+			generationsPerSecond = (generation - rateGeneration) / seconds;
+			genesPerSecond = (genesEvaluated - rateGenes) / seconds;
+			rateTime = now;
+			rateGeneration = generation;
+			rateGenes = genesEvaluated;
+		}
+		sequence = seq + 2;
+		if(csv != null && generation % csvInterval == 0)
+			writeCsv(now);
+		Recorder recorder = this.recorder;
+		if(recorder != null)
+			recorder.generation(name, this);
+	}
+
+	/**
+	 * Read a consistent copy of the metrics (any thread)
+	 * @param snapshot	Where to copy the metrics
+	 * @return sequence number of the copy (changes on every update)
+	 */
+	public long read(MIDIEvoMetrics snapshot){
+		long seq;
+		do{
+			seq = sequence;
+			snapshot.generation = generation;
+			snapshot.best = best;
+			snapshot.worst = worst;
+			snapshot.mean = mean;
+			snapshot.mrate = mrate;
+			snapshot.tournamentNanos = tournamentNanos;
+			snapshot.recombinationNanos = recombinationNanos;
+			snapshot.mutationNanos = mutationNanos;
+			snapshot.replacementNanos = replacementNanos;
+			snapshot.mutations = mutations;
+			snapshot.restarts = restarts;
+			snapshot.rateChanges = rateChanges;
+			snapshot.genesEvaluated = genesEvaluated;
+			snapshot.allocatedBytes = allocatedBytes;
+			snapshot.lastTournament = lastTournament;
+			snapshot.lastRecombination = lastRecombination;
+			snapshot.lastMutation = lastMutation;
+			snapshot.lastReplacement = lastReplacement;
+			snapshot.lastMutations = lastMutations;
+			snapshot.lastRestarts = lastRestarts;
+			snapshot.generationsPerSecond = generationsPerSecond;
+			snapshot.genesPerSecond = genesPerSecond;
+		}while((seq & 1) != 0 || seq != sequence);
+		return seq;
+	}
+
+	/**
+	 * Add the bytes allocated by the current thread since the last reading
+	 */
+	private void allocation(){
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return;
+		long thread = Thread.currentThread().getId();
+		long bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread);
+		if(bytes < 0)
+			return;
+		if(thread == allocationThread)
+			allocatedBytes += bytes - allocationStart;
+		allocationThread = thread;
+		allocationStart = bytes;
+	}
+
+	/**
+	 * Count a change of the mutation rate
+	 */
+	public void rateChanged(){
+		long seq = sequence;
+		sequence = seq + 1;
+		rateChanges++;
+		sequence = seq + 2;
+	}
+
+	/**
+	 * Start measuring a run (the rates are measured from now, evolution thread)
+	 * @param generation	First generation
+	 */
+	public void start(int generation){
+		long seq = sequence;
+		sequence = seq + 1;
+		this.generation = generation;
+		startTime = rateTime = System.nanoTime();
+		rateGeneration = generation;
+		rateGenes = genesEvaluated;
+		allocationThread = -1;
+		sequence = seq + 2;
+	}
+
+	/**
+	 * Publish the metrics as an MBean (com.uc3m.main:type=MIDIEvoMetrics,name=name)
+	 * @param name	Name of the run
+	 * @throws JMException
+	 */
+	public synchronized void register(String name) throws JMException{
+		unregister();
+		this.name = name;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("com.uc3m.main:type=MIDIEvoMetrics,name="+ObjectName.quote(name));
+		if(server.isRegistered(objectName))
+			server.unregisterMBean(objectName);
+		server.registerMBean(this, objectName);
+		this.objectName = objectName;
+	}
+
+	/**
+	 * Remove the MBean (if it's registered)
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException{
+		if(objectName == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if(server.isRegistered(objectName))
+			server.unregisterMBean(objectName);
+		objectName = null;
+	}
+
+	/**
+	 * Write the metrics to a CSV file every some generations (cumulative times and
+	 * counters). When the file is bigger than maxBytes it's renamed to file.1 (the
+	 * old file.1 is deleted) and a new file is started.
+	 * @param file	CSV file (null to stop writing)
+	 * @param interval	Generations between lines
+	 * @param maxBytes	Max size of the file
+	 * @throws IOException
+	 */
+	public synchronized void setCsv(File file, int interval, long maxBytes) throws IOException{
+		closeCsv();
+		if(file == null)
+			return;
+		this.csvFile = file;
+		this.csvInterval = Math.max(1, interval);
+		this.csvMaxBytes = Math.max(CSV_HEADER.length() + 1, maxBytes);
+		openCsv();
+	}
+
+	private void openCsv() throws IOException{
+		csv = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.US_ASCII));
+		csv.write(CSV_HEADER);
+		csv.write('\n');
+		csv.flush();
+		csvBytes = CSV_HEADER.length() + 1;
+	}
+
+	private synchronized void writeCsv(long now){
+		if(csv == null)
+			return;
+		String line = String.format(Locale.ROOT, "%d,%d,%d,%d,%.3f,%.4f,%.2f,%.0f,%d,%d,%d,%d,%d,%d,%d,%d,%d\n",
+				(now - startTime) / 1000000, generation, best, worst, mean, mrate, generationsPerSecond,
+				genesPerSecond, tournamentNanos, recombinationNanos, mutationNanos, replacementNanos,
+				mutations, restarts, rateChanges, genesEvaluated, allocatedBytes);
+		try {
+			if(csvBytes + line.length() > csvMaxBytes){
+				csv.close();
+				Files.move(csvFile.toPath(), new File(csvFile.getPath()+".1").toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				openCsv();
+			}
+			csv.write(line);
+			csv.flush();
+			csvBytes += line.length();
+		} catch (IOException e) {
+			e.printStackTrace();
+			csv = null;
+		}
+	}
+
+	/**
+	 * Close the CSV file (if any)
+	 * @throws IOException
+	 */
+	public synchronized void closeCsv() throws IOException{
+		if(csv != null){
+			Writer writer = csv;
+			csv = null;
+			writer.close();
+		}
+	}
+
+	/**
+	 * Record a JFR event for every generation
+	 * @param enabled
+	 * @return false if JFR events are not available (jfr source folder not compiled or JDK < 11)
+	 */
+	public synchronized boolean setFlightRecorder(boolean enabled){
+		recorder = null;
+		if(!enabled)
+			return true;
+		try {
+			recorder = (Recorder) Class.forName(FLIGHT_RECORDER).getDeclaredConstructor().newInstance();
+			return true;
+		} catch (Exception | LinkageError e) {
+			return false;
+		}
+	}
+
+	public synchronized String getName(){
+		return name;
+	}
+
+	@Override
+	public int getGeneration(){
+		return generation;
+	}
+
+	@Override
+	public double getGenerationsPerSecond(){
+		return generationsPerSecond;
+	}
+
+	@Override
+	public double getGenesPerSecond(){
+		return genesPerSecond;
+	}
+
+	@Override
+	public long getBestFitness(){
+		return best;
+	}
+
+	@Override
+	public long getWorstFitness(){
+		return worst;
+	}
+
+	@Override
+	public double getMeanFitness(){
+		return mean;
+	}
+
+	@Override
+	public double getMutationRate(){
+		return mrate;
+	}
+
+	@Override
+	public long getTournamentNanos(){
+		return tournamentNanos;
+	}
+
+	@Override
+	public long getRecombinationNanos(){
+		return recombinationNanos;
+	}
+
+	@Override
+	public long getMutationNanos(){
+		return mutationNanos;
+	}
+
+	@Override
+	public long getReplacementNanos(){
+		return replacementNanos;
+	}
+
+	@Override
+	public long getMutations(){
+		return mutations;
+	}
+
+	@Override
+	public long getRandomRestarts(){
+		return restarts;
+	}
+
+	@Override
+	public long getRateChanges(){
+		return rateChanges;
+	}
+
+	@Override
+	public long getGenesEvaluated(){
+		return genesEvaluated;
+	}
+
+	@Override
+	public long getAllocatedBytes(){
+		return allocatedBytes;
+	}
+
+	public long getLastTournamentNanos(){
+		return lastTournament;
+	}
+
+	public long getLastRecombinationNanos(){
+		return lastRecombination;
+	}
+
+	public long getLastMutationNanos(){
+		return lastMutation;
+	}
+
+	public long getLastReplacementNanos(){
+		return lastReplacement;
+	}
+
+	public long getLastMutations(){
+		return lastMutations;
+	}
+
+	public long getLastRandomRestarts(){
+		return lastRestarts;
+	}
+}
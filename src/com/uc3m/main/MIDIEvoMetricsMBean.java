@@ -0,0 +1,43 @@
+package com.uc3m.main;
+
+/**
+ * JMX view of the metrics of a running engine (MIDIEvoMetrics).
+ * Times and counters are totals since the start of the run.
+ *
+ * @author antonio
+ *
+ */
+public interface MIDIEvoMetricsMBean {
+
+	int getGeneration();
+
+	double getGenerationsPerSecond();
+
+	double getGenesPerSecond();
+
+	long getBestFitness();
+
+	long getWorstFitness();
+
+	double getMeanFitness();
+
+	double getMutationRate();
+
+	long getTournamentNanos();
+
+	long getRecombinationNanos();
+
+	long getMutationNanos();
+
+	long getReplacementNanos();
+
+	long getMutations();
+
+	long getRandomRestarts();
+
+	long getRateChanges();
+
+	long getGenesEvaluated();
+
+	long getAllocatedBytes();
+}
@@ -0,0 +1,368 @@
+package com.uc3m.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * One track of a Standard MIDI File, read without the javax.sound.midi parser.
+ * The file is memory-mapped and only the requested MTrk chunk is decoded (the
+ * other chunks are skipped by their length). Delta times and running status are
+ * decoded directly into packed arrays: the notes (NOTE_ON, NOTE_OFF) into
+ * type/key/channel/tick arrays and the rest of the events into the tick, status
+ * and byte range (in the mapped file) of their data, so no MidiEvent or
+ * MidiMessage is created while reading. The track is decoded twice (count,
+ * then fill) so the arrays have exactly the right size.
+ *
+ * The bytes of an event are the status byte (otherStatus, always explicit)
+ * followed by otherLength bytes from otherOffset: the data bytes of a channel
+ * message, type + length + data of a meta event (0xFF), length + data of a
+ * system exclusive event (0xF0, 0xF7).
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoMidiFile {
+
+	private static final int MTHD = 0x4D546864;	//"MThd"
+	private static final int MTRK = 0x4D54726B;	//"MTrk"
+	private File file;
+	private ByteBuffer buffer;			//Mapped file (read only)
+	private int format;					//SMF format (0, 1 or 2)
+	private int tracks;					//Number of MTrk chunks
+	private float divisionType;			//Sequence.PPQ or a SMPTE type
+	private int resolution;				//Ticks per quarter note (PPQ) or per frame (SMPTE)
+	private int track;					//Track read
+	private int notes;					//Number of notes
+	private byte[] types;				//Command of every note
+	private byte[] keys;				//Key of every note
+	private byte[] channels;			//Channel of every note
+	private long[] ticks;				//Tick of every note
+	private int others;					//Number of other events
+	private int[] otherStatus;			//Status byte of every other event
+	private int[] otherOffset;			//First byte after the status
+	private int[] otherLength;			//Bytes after the status
+	private long[] otherTicks;			//Tick of every other event
+	private long maxTick = 0;			//Last short message tick
+	private int channel = -1;			//Channel of the first short message
+	private boolean hasDifferentChannels = false;
+	private boolean hasTempo = false;
+
+	private MIDIEvoMidiFile(File file){
+		this.file = file;
+	}
+
+	/**
+	 * Read one track of a Standard MIDI File
+	 * @param file	MIDI file
+	 * @param track	Track (0 = first MTrk chunk)
+	 * @return track
+	 * @throws IOException
+	 * @throws InvalidMidiDataException if the file is not a SMF or it doesn't have the track
+	 */
+	public static MIDIEvoMidiFile read(File file, int track) throws IOException, InvalidMidiDataException{
+		MIDIEvoMidiFile midiFile = new MIDIEvoMidiFile(file);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()){
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("MIDI file too big: "+file);
+			//The mapping is still valid when the channel is closed
+			midiFile.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		midiFile.parse(track);
+		return midiFile;
+	}
+
+	/**
+	 * Read the header and find the MTrk chunk of the track
+	 * @param track
+	 * @throws InvalidMidiDataException
+	 */
+	private void parse(int track) throws InvalidMidiDataException{
+		try {
+			if(buffer.getInt(0) != MTHD || buffer.getInt(4) < 6)
+				throw new InvalidMidiDataException("Not a Standard MIDI File: "+file);
+			format = buffer.getShort(8) & 0xFFFF;
+			tracks = buffer.getShort(10) & 0xFFFF;
+			int division = buffer.getShort(12) & 0xFFFF;
+			if((division & 0x8000) == 0){
+				divisionType = Sequence.PPQ;
+				resolution = division;
+			}else{
+				switch(-((byte) (division >> 8))){
+				case 24: divisionType = Sequence.SMPTE_24; break;
+				case 25: divisionType = Sequence.SMPTE_25; break;
+				case 29: divisionType = Sequence.SMPTE_30DROP; break;
+				case 30: divisionType = Sequence.SMPTE_30; break;
+				default: throw new InvalidMidiDataException("Unknown SMPTE format: "+file);
+				}
+				resolution = division & 0xFF;
+			}
+
+			//Skip the chunks until the MTrk chunk of the track
+			long pos = 8L + buffer.getInt(4);
+			int mtrk = 0;
+			while(pos + 8 <= buffer.limit()){
+				int type = buffer.getInt((int) pos);
+				long length = buffer.getInt((int) pos + 4) & 0xFFFFFFFFL;
+				pos += 8;
+				if(type == MTRK && mtrk++ == track){
+					int end = (int) Math.min(buffer.limit(), pos + length);
+					this.track = track;
+					decode((int) pos, end, false);
+					types = new byte[notes];
+					keys = new byte[notes];
+					channels = new byte[notes];
+					ticks = new long[notes];
+					otherStatus = new int[others];
+					otherOffset = new int[others];
+					otherLength = new int[others];
+					otherTicks = new long[others];
+					decode((int) pos, end, true);
+					return;
+				}
+				pos += length;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new InvalidMidiDataException("Truncated MIDI file: "+file);
+		}
+		throw new InvalidMidiDataException("No track "+track+" in "+file);
+	}
+
+	/**
+	 * Decode the events of a MTrk chunk
+	 * @param pos	First byte of the events
+	 * @param end	End of the chunk
+	 * @param fill	false: only count the notes and the other events, true: store them
+	 * @throws InvalidMidiDataException
+	 */
+	private void decode(int pos, int end, boolean fill) throws InvalidMidiDataException{
+		int note = 0;
+		int other = 0;
+		int running = 0;	//Running status (0 = none)
+		long tick = 0;
+		while(pos < end){
+			//Delta time: variable length quantity
+			int b;
+			long delta = 0;
+			do{
+				b = buffer.get(pos++);
+				delta = (delta << 7) | (b & 0x7F);
+			}while((b & 0x80) != 0);
+			tick += delta;
+
+			int status = buffer.get(pos) & 0xFF;
+			if(status >= 0x80)
+				pos++;
+			else if(running != 0)
+				status = running;
+			else
+				throw new InvalidMidiDataException("Data byte without status at "+pos+" in "+file);
+
+			int start = pos;
+			if(status < 0xF0){
+				//Channel message: 1 or 2 data bytes
+				running = status;
+				int command = status & 0xF0;
+				pos += command == ShortMessage.PROGRAM_CHANGE || command == ShortMessage.CHANNEL_PRESSURE ? 1 : 2;
+				if(fill){
+					if(tick > maxTick)
+						maxTick = tick;
+					int c = status & 0x0F;
+					if(channel == -1)
+						channel = c;
+					else if(channel != c)
+						hasDifferentChannels = true;
+				}
+				if(command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF){
+					if(fill){
+						types[note] = (byte) command;
+						keys[note] = buffer.get(start);
+						channels[note] = (byte) (status & 0x0F);
+						ticks[note] = tick;
+					}
+					note++;
+					continue;
+				}
+			}else if(status == 0xFF){
+				//Meta event: type, length, data
+				running = 0;
+				int type = buffer.get(pos++) & 0xFF;
+				int length = 0;
+				do{
+					b = buffer.get(pos++);
+					length = (length << 7) | (b & 0x7F);
+				}while((b & 0x80) != 0);
+				pos += length;
+				if(fill && type == 0x51)
+					hasTempo = true;
+			}else if(status == 0xF0 || status == 0xF7){
+				//System exclusive: length, data
+				running = 0;
+				int length = 0;
+				do{
+					b = buffer.get(pos++);
+					length = (length << 7) | (b & 0x7F);
+				}while((b & 0x80) != 0);
+				pos += length;
+			}else{
+				throw new InvalidMidiDataException("Unknown status "+status+" at "+pos+" in "+file);
+			}
+			if(fill){
+				otherStatus[other] = status;
+				otherOffset[other] = start;
+				otherLength[other] = pos - start;
+				otherTicks[other] = tick;
+			}
+			other++;
+		}
+		notes = note;
+		others = other;
+	}
+
+	/**
+	 * Create the MidiMessage of an event that is not a note (only to write it with javax.sound.midi)
+	 * @param i	Event
+	 * @return message
+	 * @throws InvalidMidiDataException
+	 */
+	public MidiMessage getOtherMessage(int i) throws InvalidMidiDataException{
+		int status = otherStatus[i];
+		int pos = otherOffset[i];
+		if(status < 0xF0){
+			ShortMessage message = new ShortMessage();
+			message.setMessage(status, buffer.get(pos) & 0xFF, otherLength[i] > 1 ? buffer.get(pos + 1) & 0xFF : 0);
+			return message;
+		}
+		int type = status == 0xFF ? buffer.get(pos++) & 0xFF : 0;
+		int length = 0, b;
+		do{
+			b = buffer.get(pos++);
+			length = (length << 7) | (b & 0x7F);
+		}while((b & 0x80) != 0);
+		if(status == 0xFF){
+			byte[] data = new byte[length];
+			getBytes(pos, data, 0, length);
+			MetaMessage message = new MetaMessage();
+			message.setMessage(type, data, length);
+			return message;
+		}
+		byte[] data = new byte[length + 1];
+		data[0] = (byte) status;
+		getBytes(pos, data, 1, length);
+		SysexMessage message = new SysexMessage();
+		message.setMessage(data, data.length);
+		return message;
+	}
+
+	/**
+	 * Copy bytes of the mapped file
+	 * @param pos	First byte
+	 * @param dst	Destination
+	 * @param offset	Offset in the destination
+	 * @param length	Number of bytes
+	 */
+	public void getBytes(int pos, byte[] dst, int offset, int length){
+		ByteBuffer src = buffer.duplicate();
+		src.position(pos);
+		src.get(dst, offset, length);
+	}
+
+	/**
+	 * @return mapped file (read only, shared: use absolute gets or a duplicate)
+	 */
+	public ByteBuffer getBuffer(){
+		return buffer;
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	public int getFormat(){
+		return format;
+	}
+
+	/**
+	 * @return number of MTrk chunks of the file
+	 */
+	public int getTracks(){
+		return tracks;
+	}
+
+	public int getTrack(){
+		return track;
+	}
+
+	public float getDivisionType(){
+		return divisionType;
+	}
+
+	public int getResolution(){
+		return resolution;
+	}
+
+	public int getNotes(){
+		return notes;
+	}
+
+	public byte[] getTypes(){
+		return types;
+	}
+
+	public byte[] getKeys(){
+		return keys;
+	}
+
+	public byte[] getChannels(){
+		return channels;
+	}
+
+	public long[] getTicks(){
+		return ticks;
+	}
+
+	public int getOthers(){
+		return others;
+	}
+
+	public int[] getOtherStatus(){
+		return otherStatus;
+	}
+
+	public int[] getOtherOffset(){
+		return otherOffset;
+	}
+
+	public int[] getOtherLength(){
+		return otherLength;
+	}
+
+	public long[] getOtherTicks(){
+		return otherTicks;
+	}
+
+	public long getMaxTick(){
+		return maxTick;
+	}
+
+	public int getChannel(){
+		return channel;
+	}
+
+	public boolean isHasDifferentChannels(){
+		return hasDifferentChannels;
+	}
+
+	public boolean isHasTempo(){
+		return hasTempo;
+	}
+}
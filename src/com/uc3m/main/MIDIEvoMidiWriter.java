@@ -0,0 +1,306 @@
+package com.uc3m.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Writes an individual (or a MIDIEvoTrack) as a Standard MIDI File (format 1, one
+ * track) without creating a javax.sound.midi Track. The notes are sorted by tick
+ * once (a primitive sort of tick + gene keys) and merged with the messages of the
+ * original track that are not notes (the raw bytes of the file if it was read with
+ * MIDIEvoMidiFile, the original MidiMessages if not). Delta times and running
+ * status are encoded straight into a ByteBuffer that is reused by every call, and
+ * the file is written with a single channel write.
+ *
+ * The events are in the same order as a Track built with convertToTrack: at the
+ * same tick, the messages of the original track go before the notes and the notes
+ * keep the order of the genes. The end of track is at the last tick of any event.
+ *
+ * A writer is not thread safe (use one per thread).
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoMidiWriter {
+
+	private static final int MTHD = 0x4D546864;	//"MThd"
+	private static final int MTRK = 0x4D54726B;	//"MTrk"
+	private static final int END_OF_TRACK = 0x2F;	//Meta event type
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);	//Encoded file (reused)
+	private long[] sorted = new long[0];	//Tick + gene of every note, sorted
+	private byte[] types = new byte[0];		//Notes of a MIDIEvoTrack
+	private byte[] keys = new byte[0];
+	private byte[] channels = new byte[0];
+	private long[] ticks = new long[0];
+	private int running;					//Running status (0 = none)
+	private long tick;						//Tick of the last event written
+
+	/**
+	 * Encode an individual of a population
+	 * @param population
+	 * @param ind	Individual
+	 * @param divisionType	Sequence.PPQ or a SMPTE type
+	 * @param resolution
+	 * @return buffer with the file (position 0, reused by the next call)
+	 */
+	public ByteBuffer encode(MIDIEvoPopulation population, int ind, float divisionType, int resolution){
+		int genes = population.getGenes();
+		return encode(population.getOriginal(), population.getTypes(), population.getKeys(), population.getTicks(),
+				null, ind * genes, genes, divisionType, resolution);
+	}
+
+	/**
+	 * Encode a copy of an individual
+	 * @param snapshot
+	 * @param divisionType	Sequence.PPQ or a SMPTE type
+	 * @param resolution
+	 * @return buffer with the file (position 0, reused by the next call)
+	 */
+	public ByteBuffer encode(MIDIEvoSnapshot snapshot, float divisionType, int resolution){
+		return encode(snapshot.getOriginal(), snapshot.getTypes(), snapshot.getKeys(), snapshot.getTicks(),
+				null, 0, snapshot.getGenes(), divisionType, resolution);
+	}
+
+	/**
+	 * Encode a MIDIEvoTrack
+	 * @param track
+	 * @param divisionType	Sequence.PPQ or a SMPTE type
+	 * @param resolution
+	 * @return buffer with the file (position 0, reused by the next call)
+	 */
+	public ByteBuffer encode(MIDIEvoTrack track, float divisionType, int resolution){
+		ArrayList<SimplifiedShortMessage> ssms = track.getSimplifiedShortMessages();
+		int notes = ssms.size();
+		if(types.length < notes){
+			types = new byte[notes];
+			keys = new byte[notes];
+			channels = new byte[notes];
+			ticks = new long[notes];
+		}
+		for(int i = 0; i < notes; i++){
+			SimplifiedShortMessage ssm = ssms.get(i);
+			types[i] = (byte) ssm.getType();
+			keys[i] = (byte) ssm.getKey();
+			channels[i] = (byte) ssm.getChannel();
+			ticks[i] = ssm.getTick();
+		}
+		return encode(track, types, keys, ticks, channels, 0, notes, divisionType, resolution);
+	}
+
+	/**
+	 * Write an individual of a population to a file
+	 * @param population
+	 * @param ind	Individual
+	 * @param divisionType	Sequence.PPQ or a SMPTE type
+	 * @param resolution
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(MIDIEvoPopulation population, int ind, float divisionType, int resolution, File file)
+			throws IOException{
+		write(encode(population, ind, divisionType, resolution), file);
+	}
+
+	/**
+	 * Write a MIDIEvoTrack to a file
+	 * @param track
+	 * @param divisionType	Sequence.PPQ or a SMPTE type
+	 * @param resolution
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(MIDIEvoTrack track, float divisionType, int resolution, File file) throws IOException{
+		write(encode(track, divisionType, resolution), file);
+	}
+
+	/**
+	 * Write an encoded file
+	 * @param buffer	Encoded file
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(ByteBuffer buffer, File file) throws IOException{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Encode the notes and the rest of the messages of the original track
+	 * @param original	Original track (messages that are not notes)
+	 * @param types	Command of every note
+	 * @param keys	Key of every note
+	 * @param ticks	Tick of every note
+	 * @param channels	Channel of every note (null = channel of the original track)
+	 * @param base	First note
+	 * @param notes	Number of notes
+	 * @param divisionType
+	 * @param resolution
+	 * @return buffer with the file
+	 */
+	ByteBuffer encode(MIDIEvoTrack original, byte[] types, byte[] keys, long[] ticks, byte[] channels,
+			int base, int notes, float divisionType, int resolution){
+		MIDIEvoMidiFile midiFile = original.getMidiFile();
+		ArrayList<MidiMessage> messages = original.getOriginalMessages();
+		ArrayList<Long> messagesTicks = original.getOriginalMessagesTicks();
+		int others = midiFile == null ? 0 : midiFile.getOthers();
+
+		//Max size: headers, 4 bytes of delta time for every event and the end of track
+		long size = 14 + 8 + notes * 7L + 8;
+		for(int i = 0; i < others; i++)
+			size += 5 + midiFile.getOtherLength()[i];
+		for(MidiMessage message : messages)
+			size += 9 + message.getLength();
+		if(size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("MIDI file too big: "+size+" bytes");
+		if(buffer.capacity() < size)
+			buffer = ByteBuffer.allocate((int) Math.max(size, buffer.capacity() * 2L));
+		buffer.clear();
+
+		//Sort the notes by tick (the gene breaks the ties)
+		if(sorted.length < notes)
+			sorted = new long[notes];
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, notes - 1));
+		for(int i = 0; i < notes; i++){
+			long t = ticks[base + i];
+			if(t < 0 || (t >>> (63 - bits)) != 0)
+				throw new IllegalArgumentException("Tick out of range: "+t);
+			sorted[i] = (t << bits) | i;
+		}
+		Arrays.sort(sorted, 0, notes);
+
+		//Header
+		buffer.putInt(MTHD).putInt(6).putShort((short) 1).putShort((short) 1);
+		buffer.putShort((short) division(divisionType, resolution));
+		buffer.putInt(MTRK);
+		int lengthPos = buffer.position();
+		buffer.putInt(0);
+
+		//Merge the raw messages, the original messages and the notes
+		running = 0;
+		tick = 0;
+		long endTick = 0;
+		ByteBuffer raw = midiFile == null ? null : midiFile.getBuffer().duplicate();
+		int channel = original.getChannel();
+		int other = 0, message = 0, note = 0;
+		long mask = (1L << bits) - 1;
+		while(true){
+			long otherTick = other < others ? midiFile.getOtherTicks()[other] : Long.MAX_VALUE;
+			long messageTick = message < messages.size() ? messagesTicks.get(message) : Long.MAX_VALUE;
+			long noteTick = note < notes ? sorted[note] >>> bits : Long.MAX_VALUE;
+			if(otherTick == Long.MAX_VALUE && messageTick == Long.MAX_VALUE && noteTick == Long.MAX_VALUE)
+				break;
+			if(otherTick <= messageTick && otherTick <= noteTick){
+				int status = midiFile.getOtherStatus()[other];
+				int offset = midiFile.getOtherOffset()[other];
+				int length = midiFile.getOtherLength()[other];
+				endTick = Math.max(endTick, otherTick);
+				other++;
+				if(status == 0xFF && (raw.get(offset) & 0xFF) == END_OF_TRACK)
+					continue;
+				delta(otherTick);
+				status(status);
+				raw.limit(offset + length).position(offset);
+				buffer.put(raw);
+				raw.limit(raw.capacity());
+			}else if(messageTick <= noteTick){
+				MidiMessage midiMessage = messages.get(message++);
+				endTick = Math.max(endTick, messageTick);
+				if(midiMessage instanceof MetaMessage && ((MetaMessage) midiMessage).getType() == END_OF_TRACK)
+					continue;
+				delta(messageTick);
+				byte[] data = midiMessage.getMessage();
+				int length = midiMessage.getLength();
+				status(data[0] & 0xFF);
+				if(midiMessage instanceof SysexMessage){
+					//Status, length, data
+					writeVarInt(length - 1);
+				}
+				buffer.put(data, 1, length - 1);
+			}else{
+				int i = base + (int) (sorted[note++] & mask);
+				endTick = Math.max(endTick, noteTick);
+				delta(noteTick);
+				status((types[i] & 0xF0) | ((channels == null ? channel : channels[i - base]) & 0x0F));
+				buffer.put(keys[i]).put((byte) MIDIEvoTrack.DEFAULT_VELOCITY);
+			}
+		}
+		//End of track
+		delta(endTick);
+		buffer.put((byte) 0xFF).put((byte) END_OF_TRACK).put((byte) 0);
+
+		buffer.putInt(lengthPos, buffer.position() - lengthPos - 4);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Write the delta time of an event
+	 * @param eventTick
+	 */
+	private void delta(long eventTick){
+		writeVarInt(eventTick - tick);
+		tick = eventTick;
+	}
+
+	/**
+	 * Write a status byte (channel messages with the same status use running status)
+	 * @param status
+	 */
+	private void status(int status){
+		if(status < 0xF0 && status == running)
+			return;
+		buffer.put((byte) status);
+		//Meta and system exclusive events cancel the running status
+		running = status < 0xF0 ? status : 0;
+	}
+
+	/**
+	 * Write a variable length quantity (7 bits per byte, most significant first)
+	 * @param value
+	 */
+	private void writeVarInt(long value){
+		if(value < 0 || value > 0x0FFFFFFF)
+			throw new IllegalArgumentException("Delta time out of range: "+value);
+		int shift = 21;
+		while(shift > 0 && (value >>> shift) == 0)
+			shift -= 7;
+		for(; shift > 0; shift -= 7)
+			buffer.put((byte) (0x80 | ((value >>> shift) & 0x7F)));
+		buffer.put((byte) (value & 0x7F));
+	}
+
+	/**
+	 * @param divisionType
+	 * @param resolution
+	 * @return division field of the header
+	 */
+	private static int division(float divisionType, int resolution){
+		if(divisionType == Sequence.PPQ)
+			return resolution & 0x7FFF;
+		int frames;
+		if(divisionType == Sequence.SMPTE_24)
+			frames = 24;
+		else if(divisionType == Sequence.SMPTE_25)
+			frames = 25;
+		else if(divisionType == Sequence.SMPTE_30DROP)
+			frames = 29;
+		else if(divisionType == Sequence.SMPTE_30)
+			frames = 30;
+		else
+			throw new IllegalArgumentException("Unknown division type: "+divisionType);
+		return ((-frames & 0xFF) << 8) | (resolution & 0xFF);
+	}
+}
@@ -0,0 +1,989 @@
+package com.uc3m.main;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Primitive (structure of arrays) representation of a population of tracks.
+ * Every individual is a row of genes and every gene is stored in contiguous
+ * arrays indexed by (individual * genes + locus), so no object is created per note.
+ *
+ * The population also keeps the order of its individuals by fitness (rank),
+ * the individual with rank 0 is the best one.
+ *
+ * A population can have spare slots for the offspring: the offspring is created
+ * in the free slots and the replacement only swaps slots (the slots of the worst
+ * individuals become the free slots of the next generation), so no genes are copied
+ * and nothing is allocated between generations.
+ *
+ * The mean and variance of the fitness are updated (Welford) every time an
+ * individual replaces another one, so they are always available in O(1).
+ *
+ * Every individual has a 64-bit fingerprint (Zobrist style: the XOR of a hash of
+ * every gene and its locus), updated when a gene changes. Two individuals can only
+ * be equal if their fingerprints are equal. The fingerprints of the population are
+ * kept in a multiset, updated on every replacement, so the number of different
+ * genomes (the diversity of the population) is always available in O(1). With
+ * unique replacement the offspring whose fingerprint is already in the population
+ * is rejected.
+ *
+ * With guided mutation every individual keeps an index of its wrong genes (gene
+ * fitness > 0), and only those genes are mutated, in proportion to their error.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoPopulation {
+
+	private int size;					//Number of individuals
+	private int spare;					//Number of free slots (offspring)
+	private int genes;					//Number of genes (Short Messages) per individual
+	private byte[] types;				//Message type of every gene (NOTE_ON, NOTE_OFF)
+	private byte[] keys;				//Key of every gene (0..127)
+	private long[] ticks;				//Tick of every gene
+	private int[] geneFitness;			//Fitness of every gene against the original track (saturated, MIDIEvoFitnessKernel.MAX_GENE_FITNESS)
+	private long[] fitness;				//Total fitness of every individual
+	private long[] fingerprint;			//Hash of the genes of every individual
+	private MIDIEvoFingerprintSet fingerprints;	//Fingerprints of the population (multiset)
+	private boolean unique = false;		//Reject the offspring already in the population
+	private long rejected = 0;			//Offspring rejected as duplicates
+	private MIDIEvoFitnessKernel kernel = MIDIEvoFitnessKernel.get();	//Fitness of a whole individual
+	private int[] wrong;				//Loci of the wrong genes of every individual (null = no guided mutation)
+	private int[] wrongIndex;			//Position of every gene in wrong (-1 = right gene)
+	private int[] wrongCount;			//Number of wrong genes of every individual
+	private int[] order;				//Individuals sorted by fitness (order[rank] = individual)
+	private int[] merged;				//Buffer to merge the survivors and the offspring
+	private int[] free;					//Free slots (offspring of the current generation)
+	private MIDIEvoTrack original;		//Original track (target)
+	private byte[] targetTypes;			//Original track's message types
+	private byte[] targetKeys;			//Original track's keys
+	private long[] targetTicks;			//Original track's ticks
+	private long maxTick;				//Last Short Message Tick
+	private double mean;				//Mean fitness of the population
+	private double m2;					//Sum of squared differences from the mean (Welford)
+	private static final int MIN_KEY = 0;		//Minimum key value
+	private static final int MAX_KEY = 127;		//Maximum key value
+	private static final byte[] commands = {(byte) ShortMessage.NOTE_OFF, (byte) ShortMessage.NOTE_ON}; //Command types
+
+	/**
+	 * Constructor: Creates an empty population to evolve the original track
+	 * @param size	Number of individuals
+	 * @param original	Original track
+	 */
+	public MIDIEvoPopulation(int size, MIDIEvoTrack original){
+		this(size, 0, original);
+	}
+
+	/**
+	 * Constructor: Creates an empty population with free slots for the offspring
+	 * @param size	Number of individuals
+	 * @param spare	Number of free slots (offspring per generation, at most size)
+	 * @param original	Original track
+	 */
+	public MIDIEvoPopulation(int size, int spare, MIDIEvoTrack original){
+		this.original = original;
+		this.genes = original.getMaxSize();
+		this.maxTick = original.getMaxTick();
+		MIDIEvoMidiFile midiFile = original.getMidiFile();
+		if(midiFile != null){
+			//The notes are already packed (never changed, so they are shared)
+			this.targetTypes = midiFile.getTypes();
+			this.targetKeys = midiFile.getKeys();
+			this.targetTicks = midiFile.getTicks();
+		}else{
+			this.targetTypes = new byte[genes];
+			this.targetKeys = new byte[genes];
+			this.targetTicks = new long[genes];
+			ArrayList<SimplifiedShortMessage> ssms = original.getSimplifiedShortMessages();
+			for(int i = 0; i < genes; i++){
+				SimplifiedShortMessage ssm = ssms.get(i);
+				targetTypes[i] = (byte) ssm.getType();
+				targetKeys[i] = (byte) ssm.getKey();
+				targetTicks[i] = ssm.getTick();
+			}
+		}
+		allocate(size, spare);
+	}
+
+	/**
+	 * Constructor: Creates an empty population sharing the original track of another population
+	 * @param size	Number of individuals
+	 * @param pop	Population to take the original track from
+	 */
+	public MIDIEvoPopulation(int size, MIDIEvoPopulation pop){
+		this.original = pop.original;
+		this.genes = pop.genes;
+		this.maxTick = pop.maxTick;
+		this.targetTypes = pop.targetTypes;
+		this.targetKeys = pop.targetKeys;
+		this.targetTicks = pop.targetTicks;
+		allocate(size, 0);
+	}
+
+	private void allocate(int size, int spare){
+		this.size = size;
+		this.spare = spare;
+		int slots = size + spare;
+		this.types = new byte[slots * genes];
+		this.keys = new byte[slots * genes];
+		this.ticks = new long[slots * genes];
+		this.geneFitness = new int[slots * genes];
+		this.fitness = new long[slots];
+		this.fingerprint = new long[slots];
+		this.fingerprints = new MIDIEvoFingerprintSet(slots);
+		this.order = new int[size];
+		this.merged = new int[size];
+		this.free = new int[spare];
+		for(int i = 0; i < size; i++)
+			order[i] = i;
+		for(int i = 0; i < spare; i++)
+			free[i] = size + i;
+	}
+
+	/**
+	 * Creates random genes for an individual
+	 * Select a random command (NOTE_ON, NOTE_OFF)
+	 * Select a random Key (MIN_KEY..MAX_KEY)
+	 * Select a random Tick (0..MaxTick), in EASY_MODE the original timing is used.
+	 * Then calculates the individual's fitness.
+	 * @param ind	Individual
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param random	Random stream
+	 */
+	public void createRandom(int ind, int mode, MIDIEvoRandom random){
+		int base = ind * genes;
+		for(int i = 0; i < genes; i++){
+			types[base + i] = commands[random.nextBoolean() ? 1 : 0];
+			keys[base + i] = (byte) random.nextInt(MIN_KEY, MAX_KEY + 1);
+			if(mode == MIDIEvo.EASY_MODE)
+				ticks[base + i] = targetTicks[i];
+			else
+				ticks[base + i] = random.nextLong(maxTick + 1);
+		}
+		calculateFitness(ind);
+		calculateFingerprint(ind);
+	}
+
+	/**
+	 * Hash of a gene at a locus
+	 * @param locus	Gene
+	 * @param type	Message type
+	 * @param key	Key
+	 * @param tick	Tick
+	 * @return 64-bit hash
+	 */
+	private static long geneHash(int locus, byte type, byte key, long tick){
+		return MIDIEvoRandom.mix64(tick * 0x9e3779b97f4a7c15L
+				+ MIDIEvoRandom.mix64(((long) locus << 16) | ((type & 0xFF) << 8) | (key & 0xFF)));
+	}
+
+	/**
+	 * @return hash of the original track (type, key and tick of every note and the max tick)
+	 */
+	public long getTargetHash(){
+		long hash = MIDIEvoRandom.mix64(maxTick + genes * 0x9e3779b97f4a7c15L);
+		for(int i = 0; i < genes; i++)
+			hash ^= geneHash(i, targetTypes[i], targetKeys[i], targetTicks[i]);
+		return hash;
+	}
+
+	/**
+	 * Calculate the fingerprint of an individual (XOR of the hash of every gene)
+	 * @param ind	Individual
+	 * @return fingerprint
+	 */
+	public long calculateFingerprint(int ind){
+		long hash = 0;
+		int base = ind * genes;
+		for(int i = 0; i < genes; i++)
+			hash ^= geneHash(i, types[base + i], keys[base + i], ticks[base + i]);
+		fingerprint[ind] = hash;
+		return hash;
+	}
+
+	/**
+	 * Gene's fitness calculation (Zero Fitness)
+	 * fitness = |s_type - g_type| + |s_key - g_key| + |s_tick - g_tick|, saturated at
+	 * MIDIEvoFitnessKernel.MAX_GENE_FITNESS (the same value as the fitness kernels)
+	 * @param ind	Individual
+	 * @param locus	Gene
+	 * @return gene's fitness
+	 */
+	private int calculateGeneFitness(int ind, int locus){
+		int pos = ind * genes + locus;
+		int noteDiff = (targetTypes[locus] & 0xFF) - (types[pos] & 0xFF);
+		int keyDiff = targetKeys[locus] - keys[pos];
+		long tickDiff = targetTicks[locus] - ticks[pos];
+		geneFitness[pos] = MIDIEvoFitnessKernel.geneFitness(Math.abs(noteDiff) + Math.abs(keyDiff) + Math.abs(tickDiff));
+		return geneFitness[pos];
+	}
+
+	/**
+	 * Recalculate the fitness of a changed gene and update the individual's
+	 * total fitness with the difference (old gene fitness out, new one in).
+	 * @param ind	Individual
+	 * @param locus	Gene
+	 */
+	private void updateGeneFitness(int ind, int locus){
+		long old = geneFitness[ind * genes + locus];
+		fitness[ind] += calculateGeneFitness(ind, locus) - old;
+		if(wrong != null)
+			indexGene(ind, locus);
+	}
+
+	/**
+	 * Add a gene to the wrong genes of its individual, or remove it (the last
+	 * wrong gene takes its position)
+	 * @param ind	Individual
+	 * @param locus	Gene
+	 */
+	private void indexGene(int ind, int locus){
+		int base = ind * genes;
+		int pos = base + locus;
+		int at = wrongIndex[pos];
+		if(geneFitness[pos] != 0 && at < 0){
+			wrong[base + wrongCount[ind]] = locus;
+			wrongIndex[pos] = wrongCount[ind]++;
+		}else if(geneFitness[pos] == 0 && at >= 0){
+			int last = wrong[base + --wrongCount[ind]];
+			wrong[base + at] = last;
+			wrongIndex[base + last] = at;
+			wrongIndex[pos] = -1;
+		}
+	}
+
+	/**
+	 * Index the wrong genes of an individual
+	 * @param ind	Individual
+	 */
+	private void indexGenes(int ind){
+		int base = ind * genes;
+		int count = 0;
+		for(int i = 0; i < genes; i++){
+			if(geneFitness[base + i] != 0){
+				wrong[base + count] = i;
+				wrongIndex[base + i] = count++;
+			}else{
+				wrongIndex[base + i] = -1;
+			}
+		}
+		wrongCount[ind] = count;
+	}
+
+	/**
+	 * Individual's fitness calculation
+	 * Calculate every gene's fitness comparing it to the original track and sum them.
+	 * The bigger the fitness, the worst the individual
+	 * @param ind	Individual
+	 * @return total fitness
+	 */
+	public long calculateFitness(int ind){
+		long total = kernel.fitness(targetTypes, targetKeys, targetTicks, types, keys, ticks,
+				ind * genes, geneFitness, genes);
+		fitness[ind] = total;
+		if(wrong != null)
+			indexGenes(ind);
+		return total;
+	}
+
+	/**
+	 * @param kernel	Kernel of the full fitness calculation (scalar or vector)
+	 */
+	public void setFitnessKernel(MIDIEvoFitnessKernel kernel){
+		this.kernel = kernel;
+	}
+
+	public MIDIEvoFitnessKernel getFitnessKernel(){
+		return kernel;
+	}
+
+	/**
+	 * Sum the (already calculated) fitness of every gene of an individual
+	 * @param ind	Individual
+	 * @return total fitness
+	 */
+	public long sumFitness(int ind){
+		long total = 0;
+		int base = ind * genes;
+		for(int i = 0; i < genes; i++)
+			total += geneFitness[base + i];
+		fitness[ind] = total;
+		return total;
+	}
+
+	/**
+	 * Recombination
+	 * Uniform crossover, for every gene take randomly the gene of one of the parents.
+	 * @param ind	Individual to store the result
+	 * @param parents	Population of the parents
+	 * @param p1	Parent 1
+	 * @param p2	Parent 2
+	 * @param random	Random stream
+	 */
+	public void recombine(int ind, MIDIEvoPopulation parents, int p1, int p2, MIDIEvoRandom random){
+		int base = ind * genes;
+		int base1 = p1 * genes;
+		int base2 = p2 * genes;
+		long total = 0;
+		long hash = parents.fingerprint[p1];
+		for(int i = 0; i < genes; i++){
+			int src = random.nextBoolean() ? base1 + i : base2 + i;
+			types[base + i] = parents.types[src];
+			keys[base + i] = parents.keys[src];
+			ticks[base + i] = parents.ticks[src];
+			geneFitness[base + i] = parents.geneFitness[src];
+			total += parents.geneFitness[src];
+			//Genes of the second parent change the fingerprint of the first one
+			if(src != base1 + i && (parents.ticks[src] != parents.ticks[base1 + i]
+					|| parents.keys[src] != parents.keys[base1 + i] || parents.types[src] != parents.types[base1 + i]))
+				hash ^= geneHash(i, parents.types[base1 + i], parents.keys[base1 + i], parents.ticks[base1 + i])
+					^ geneHash(i, parents.types[src], parents.keys[src], parents.ticks[src]);
+		}
+		fitness[ind] = total;
+		fingerprint[ind] = hash;
+		if(wrong != null)
+			indexGenes(ind);
+	}
+
+	/**
+	 * Mutation
+	 * Select a random part of the genes to mutate (type, key or tick)
+	 * and mutate every gene with probability mrate.
+	 * @param ind	Individual
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param mrate	Mutation rate
+	 * @param random	Random stream
+	 * @return number of mutated genes
+	 */
+	public int mutation(int ind, int mode, double mrate, MIDIEvoRandom random){
+		return mutation(ind, mode, mrate, MIDIEvo.MUTATE_FIELD_RANDOM, random);
+	}
+
+	/**
+	 * Mutation of some parts of the genes
+	 * Every gene is mutated with probability mrate: instead of a draw for every
+	 * gene, the distance to the next mutated gene is drawn (geometric skip),
+	 * so the cost depends on the number of mutations and not on the number of genes.
+	 * The selected parts of a mutated gene are changed for randomly generated new ones.
+	 * Only the mutated genes are evaluated, the total fitness is updated by difference.
+	 * @param ind	Individual
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param mrate	Mutation rate
+	 * @param fields	MUTATE_FIELD_TYPE | MUTATE_FIELD_KEY | MUTATE_FIELD_TICK,
+	 * 		or MUTATE_FIELD_RANDOM for one random part for the whole individual
+	 * @param random	Random stream
+	 * @return number of mutated genes
+	 */
+	public int mutation(int ind, int mode, double mrate, int fields, MIDIEvoRandom random){
+		if(wrong != null)
+			return guidedMutation(ind, mode, mrate, fields, random);
+		if(fields == MIDIEvo.MUTATE_FIELD_RANDOM){
+			if(mode == MIDIEvo.EASY_MODE)
+				fields = 1 << random.nextInt(0, 2);
+			else
+				fields = 1 << random.nextInt(0, 3);
+		}
+		if(mode != MIDIEvo.HARD_MODE)
+			fields &= ~MIDIEvo.MUTATE_FIELD_TICK;
+		if(fields == 0 || mrate <= 0)
+			return 0;
+
+		double logq = Math.log1p(-Math.min(mrate, 1.0));
+		int base = ind * genes;
+		int i = -1;
+		int mutations = 0;
+		while(true){
+			int skip = mrate >= 1 ? 0 : random.nextGeometric(logq);
+			if(skip >= genes - 1 - i)
+				break;
+			i += skip + 1;
+			int pos = base + i;
+			long oldHash = geneHash(i, types[pos], keys[pos], ticks[pos]);
+			if((fields & MIDIEvo.MUTATE_FIELD_TYPE) != 0)
+				types[pos] = commands[random.nextBoolean() ? 1 : 0];
+			if((fields & MIDIEvo.MUTATE_FIELD_KEY) != 0)
+				keys[pos] = (byte) random.nextInt(MIN_KEY, MAX_KEY + 1);
+			if((fields & MIDIEvo.MUTATE_FIELD_TICK) != 0)
+				ticks[pos] = random.nextLong(maxTick + 1);
+			fingerprint[ind] ^= oldHash ^ geneHash(i, types[pos], keys[pos], ticks[pos]);
+			updateGeneFitness(ind, i);
+			mutations++;
+		}
+		return mutations;
+	}
+
+	/**
+	 * Guided mutation: only the wrong genes are mutated, the most wrong ones more often
+	 * The number of mutations is drawn as in the unguided mutation (every wrong gene
+	 * with probability mrate, counted with the geometric skip). The genes are then
+	 * chosen in proportion to their error in the mutated parts (the gene fitness if
+	 * every part can be mutated) by systematic sampling: one pass over the index of
+	 * wrong genes with equally spaced pointers, so a gene is chosen at most once and
+	 * with probability mutations * error / total error (at most 1). Only the wrong
+	 * parts of a chosen gene are changed, so a right note is never broken.
+	 * The index is walked from the end: a gene that becomes right is replaced by
+	 * the last wrong gene, which was already visited.
+	 * @param ind	Individual
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param mrate	Mutation rate
+	 * @param fields	Parts that can be mutated, or MUTATE_FIELD_RANDOM for one random part
+	 * 		for the whole individual (as in the unguided mutation)
+	 * @param random	Random stream
+	 * @return number of mutated genes
+	 */
+	private int guidedMutation(int ind, int mode, double mrate, int fields, MIDIEvoRandom random){
+		if(fields == MIDIEvo.MUTATE_FIELD_RANDOM){
+			if(mode == MIDIEvo.EASY_MODE)
+				fields = 1 << random.nextInt(0, 2);
+			else
+				fields = 1 << random.nextInt(0, 3);
+		}
+		if(mode != MIDIEvo.HARD_MODE)
+			fields &= ~MIDIEvo.MUTATE_FIELD_TICK;
+		int count = wrongCount[ind];
+		if(fields == 0 || mrate <= 0 || count == 0)
+			return 0;
+
+		//Number of mutations: every wrong gene with probability mrate
+		int mutations = 0;
+		if(mrate >= 1){
+			mutations = count;
+		}else{
+			double logq = Math.log1p(-mrate);
+			int i = -1;
+			while(true){
+				int skip = random.nextGeometric(logq);
+				if(skip >= count - 1 - i)
+					break;
+				i += skip + 1;
+				mutations++;
+			}
+		}
+		if(mutations == 0)
+			return 0;
+
+		//Total error of the parts that can be mutated
+		int base = ind * genes;
+		boolean all = (fields & MIDIEvo.MUTATE_FIELD_TYPE) != 0 && (fields & MIDIEvo.MUTATE_FIELD_KEY) != 0
+				&& ((fields & MIDIEvo.MUTATE_FIELD_TICK) != 0 || mode != MIDIEvo.HARD_MODE);
+		long total = 0;
+		if(all){
+			total = fitness[ind];
+		}else{
+			for(int i = 0; i < count; i++)
+				total += error(base, wrong[base + i], fields);
+		}
+		if(total == 0)
+			return 0;
+
+		//Systematic sampling: pointers (offset + j) * step over the cumulative error
+		double step = (double) total / mutations;
+		double pointer = random.nextDouble() * step;
+		double cumulative = 0;
+		int mutated = 0;
+		for(int i = count - 1; i >= 0 && mutated < mutations; i--){
+			int locus = wrong[base + i];
+			int pos = base + locus;
+			cumulative += all ? geneFitness[pos] : error(base, locus, fields);
+			if(pointer >= cumulative)
+				continue;
+			while(pointer < cumulative)
+				pointer += step;
+			long oldHash = geneHash(locus, types[pos], keys[pos], ticks[pos]);
+			if((fields & MIDIEvo.MUTATE_FIELD_TYPE) != 0 && types[pos] != targetTypes[locus])
+				types[pos] = commands[random.nextBoolean() ? 1 : 0];
+			if((fields & MIDIEvo.MUTATE_FIELD_KEY) != 0 && keys[pos] != targetKeys[locus])
+				keys[pos] = (byte) random.nextInt(MIN_KEY, MAX_KEY + 1);
+			if((fields & MIDIEvo.MUTATE_FIELD_TICK) != 0 && ticks[pos] != targetTicks[locus])
+				ticks[pos] = random.nextLong(maxTick + 1);
+			fingerprint[ind] ^= oldHash ^ geneHash(locus, types[pos], keys[pos], ticks[pos]);
+			updateGeneFitness(ind, locus);
+			mutated++;
+		}
+		return mutated;
+	}
+
+	/**
+	 * Error of some parts of a gene (the gene fitness restricted to those parts)
+	 * @param base	First gene of the individual
+	 * @param locus	Gene
+	 * @param fields	MUTATE_FIELD_TYPE | MUTATE_FIELD_KEY | MUTATE_FIELD_TICK
+	 * @return error
+	 */
+	private long error(int base, int locus, int fields){
+		int pos = base + locus;
+		long error = 0;
+		if((fields & MIDIEvo.MUTATE_FIELD_TYPE) != 0)
+			error += Math.abs((targetTypes[locus] & 0xFF) - (types[pos] & 0xFF));
+		if((fields & MIDIEvo.MUTATE_FIELD_KEY) != 0)
+			error += Math.abs(targetKeys[locus] - keys[pos]);
+		if((fields & MIDIEvo.MUTATE_FIELD_TICK) != 0)
+			error += Math.abs(targetTicks[locus] - ticks[pos]);
+		return error;
+	}
+
+	/**
+	 * Guided mutation: index the wrong genes of every individual and mutate only them
+	 * @param enabled
+	 */
+	public void setGuided(boolean enabled){
+		if(!enabled){
+			wrong = wrongIndex = wrongCount = null;
+			return;
+		}
+		int slots = size + spare;
+		if(wrong == null){
+			wrong = new int[slots * genes];
+			wrongIndex = new int[slots * genes];
+			wrongCount = new int[slots];
+		}
+		for(int i = 0; i < slots; i++)
+			indexGenes(i);
+	}
+
+	public boolean isGuided(){
+		return wrong != null;
+	}
+
+	/**
+	 * @param ind	Individual
+	 * @return number of wrong genes (gene fitness > 0), only with guided mutation
+	 */
+	public int getWrongGenes(int ind){
+		return wrongCount[ind];
+	}
+
+	/**
+	 * Copy an individual from another population (same original track)
+	 * @param ind	Individual to overwrite
+	 * @param pop	Source population
+	 * @param src	Source individual
+	 */
+	public void copy(int ind, MIDIEvoPopulation pop, int src){
+		System.arraycopy(pop.types, src * genes, types, ind * genes, genes);
+		System.arraycopy(pop.keys, src * genes, keys, ind * genes, genes);
+		System.arraycopy(pop.ticks, src * genes, ticks, ind * genes, genes);
+		System.arraycopy(pop.geneFitness, src * genes, geneFitness, ind * genes, genes);
+		fitness[ind] = pop.fitness[src];
+		fingerprint[ind] = pop.fingerprint[src];
+		if(wrong != null){
+			if(pop.wrong != null){
+				System.arraycopy(pop.wrong, src * genes, wrong, ind * genes, genes);
+				System.arraycopy(pop.wrongIndex, src * genes, wrongIndex, ind * genes, genes);
+				wrongCount[ind] = pop.wrongCount[src];
+			}else{
+				indexGenes(ind);
+			}
+		}
+	}
+
+	/**
+	 * Compare the genes of two individuals of this population
+	 * Different fingerprints are different genes, equal fingerprints are checked gene by gene.
+	 * @param a	Individual a
+	 * @param b	Individual b
+	 * @return true if every gene is the same
+	 */
+	public boolean isEqualTo(int a, int b){
+		if(fingerprint[a] != fingerprint[b])
+			return false;
+		int baseA = a * genes;
+		int baseB = b * genes;
+		for(int i = 0; i < genes; i++){
+			if(keys[baseA + i] != keys[baseB + i])
+				return false;
+			if(ticks[baseA + i] != ticks[baseB + i])
+				return false;
+			if(types[baseA + i] != types[baseB + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Replacement
+	 * The population is already sorted, so only the offspring is sorted.
+	 * The worst individuals are overwritten by the offspring (in order) and
+	 * then both sorted parts are merged in one pass.
+	 * @param offspring	New individuals
+	 */
+	public void replace(MIDIEvoPopulation offspring){
+		int first = size - offspring.size;
+		offspring.sort();
+		for(int i = 0; i < offspring.size; i++){
+			long out = fitness[order[first + i]];
+			fingerprints.remove(fingerprint[order[first + i]]);
+			copy(order[first + i], offspring, offspring.order[i]);
+			replaceStats(out, fitness[order[first + i]]);
+			fingerprints.add(fingerprint[order[first + i]]);
+		}
+
+		//Merge survivors (0..first) and offspring (first..size), survivors first on ties
+		int i = 0, j = first, k = 0;
+		while(i < first && j < size){
+			if(fitness[order[j]] < fitness[order[i]])
+				merged[k++] = order[j++];
+			else
+				merged[k++] = order[i++];
+		}
+		while(i < first)
+			merged[k++] = order[i++];
+		while(j < size)
+			merged[k++] = order[j++];
+
+		int[] aux = order;
+		order = merged;
+		merged = aux;
+	}
+
+	/**
+	 * Replacement of the offspring created in the free slots
+	 * Only the offspring is sorted, then it's merged with the best individuals
+	 * and the slots of the worst individuals become the free slots.
+	 * With unique replacement the offspring already in the population (or repeated
+	 * in the offspring) is rejected first, and its slots stay free.
+	 */
+	public void replaceOffspring(){
+		int accepted = spare;
+		if(unique){
+			accepted = 0;
+			for(int j = 0; j < spare; j++){
+				int slot = free[j];
+				if(!fingerprints.contains(fingerprint[slot])){
+					fingerprints.add(fingerprint[slot]);
+					free[j] = free[accepted];
+					free[accepted++] = slot;
+				}
+			}
+			rejected += spare - accepted;
+		}else{
+			for(int j = 0; j < spare; j++)
+				fingerprints.add(fingerprint[free[j]]);
+		}
+		int first = size - accepted;
+		sort(free, 0, accepted - 1);
+
+		//Merge survivors (0..first) and offspring, survivors first on ties
+		int i = 0, j = 0, k = 0;
+		while(i < first && j < accepted){
+			if(fitness[free[j]] < fitness[order[i]])
+				merged[k++] = free[j++];
+			else
+				merged[k++] = order[i++];
+		}
+		while(i < first)
+			merged[k++] = order[i++];
+		while(j < accepted)
+			merged[k++] = free[j++];
+
+		//The worst individuals are discarded, their slots are reused
+		//(every discarded individual is replaced by one of the offspring)
+		for(j = 0; j < accepted; j++){
+			replaceStats(fitness[order[first + j]], fitness[free[j]]);
+			fingerprints.remove(fingerprint[order[first + j]]);
+		}
+		System.arraycopy(order, first, free, 0, accepted);
+		int[] aux = order;
+		order = merged;
+		merged = aux;
+	}
+
+	/**
+	 * Sort the individuals by fitness (Updates the rank order)
+	 * and calculate the fitness statistics again
+	 */
+	public void sort(){
+		sort(order, 0, size - 1);
+		calculateStats();
+		countFingerprints();
+	}
+
+	/**
+	 * Fill the multiset with the fingerprints of the population
+	 */
+	private void countFingerprints(){
+		fingerprints.clear();
+		for(int i = 0; i < size; i++)
+			fingerprints.add(fingerprint[order[i]]);
+	}
+
+	/**
+	 * Unique replacement: reject the offspring that is already in the population
+	 * @param enabled
+	 */
+	public void setUnique(boolean enabled){
+		this.unique = enabled;
+	}
+
+	public boolean isUnique(){
+		return unique;
+	}
+
+	/**
+	 * @return number of different genomes (fingerprints) in the population
+	 */
+	public int getDistinct(){
+		return fingerprints.size();
+	}
+
+	/**
+	 * @return number of offspring rejected as duplicates
+	 */
+	public long getRejected(){
+		return rejected;
+	}
+
+	/**
+	 * @param ind	Individual
+	 * @return fingerprint of the individual's genes
+	 */
+	public long getFingerprint(int ind){
+		return fingerprint[ind];
+	}
+
+	/**
+	 * Calculate the mean and variance of the fitness of the population (Welford)
+	 */
+	private void calculateStats(){
+		mean = 0;
+		m2 = 0;
+		for(int i = 0; i < size; i++){
+			long x = fitness[order[i]];
+			double delta = x - mean;
+			mean += delta / (i + 1);
+			m2 += delta * (x - mean);
+		}
+	}
+
+	/**
+	 * Update the fitness statistics when an individual replaces another one
+	 * @param out	Fitness of the individual that leaves the population
+	 * @param in	Fitness of the individual that enters the population
+	 */
+	private void replaceStats(long out, long in){
+		double delta = in - out;
+		double oldMean = mean;
+		mean += delta / size;
+		m2 += delta * ((in - mean) + (out - oldMean));
+	}
+
+	/**
+	 * @return mean fitness of the population
+	 */
+	public double getMeanFitness(){
+		return mean;
+	}
+
+	/**
+	 * @return sample variance of the fitness of the population
+	 */
+	public double getFitnessVariance(){
+		if(size < 2)
+			return 0;
+		return Math.max(0, m2) / (size - 1);
+	}
+
+	/**
+	 * @return coefficient of variation of the fitness (standard deviation / mean)
+	 */
+	public double getFitnessCoefficient(){
+		if(mean == 0)
+			return 0;
+		return Math.sqrt(getFitnessVariance()) / mean;
+	}
+
+	/**
+	 * Sort individuals by fitness
+	 * @param idx	Individuals
+	 * @param lo	First position
+	 * @param hi	Last position (inclusive)
+	 */
+	private void sort(int[] idx, int lo, int hi){
+		while(hi - lo > 16){
+			int mid = (lo + hi) >>> 1;
+			long pivot = fitness[idx[mid]];
+			int i = lo, j = hi;
+			while(i <= j){
+				while(fitness[idx[i]] < pivot) i++;
+				while(fitness[idx[j]] > pivot) j--;
+				if(i <= j){
+					int aux = idx[i];
+					idx[i] = idx[j];
+					idx[j] = aux;
+					i++;
+					j--;
+				}
+			}
+			//Recurse into the smaller half
+			if(j - lo < hi - i){
+				sort(idx, lo, j);
+				lo = i;
+			}else{
+				sort(idx, i, hi);
+				hi = j;
+			}
+		}
+		for(int i = lo + 1; i <= hi; i++){
+			int ind = idx[i];
+			long fit = fitness[ind];
+			int j = i - 1;
+			while(j >= lo && fitness[idx[j]] > fit){
+				idx[j + 1] = idx[j];
+				j--;
+			}
+			idx[j + 1] = ind;
+		}
+	}
+
+	/**
+	 * Create a MIDIEvoTrack from an individual (to convert it to a MIDI Track)
+	 * @param ind	Individual
+	 * @return MIDIEvoTrack
+	 */
+	public MIDIEvoTrack toTrack(int ind){
+		MIDIEvoTrack track = new MIDIEvoTrack(original);
+		ArrayList<SimplifiedShortMessage> ssms = track.getSimplifiedShortMessages();
+		int base = ind * genes;
+		for(int i = 0; i < genes; i++){
+			SimplifiedShortMessage ssm = new SimplifiedShortMessage(types[base + i] & 0xFF,
+					keys[base + i], ticks[base + i], original.getChannel());
+			ssm.setFitness(geneFitness[base + i]);
+			ssms.add(ssm);
+		}
+		track.calculateFitness();
+		return track;
+	}
+
+	/**
+	 * @return number of bytes of the population's state (see write)
+	 */
+	public long getStateSize(){
+		long slots = size + spare;
+		return slots * 8 + size * 4L + spare * 4L + slots * genes * (1 + 1 + 8);
+	}
+
+	/**
+	 * Write the population's state (fitness, rank, free slots and genes) to a buffer.
+	 * The gene fitness is not written, read recalculates it from the genes.
+	 * @param buffer	Buffer with getStateSize() bytes left
+	 */
+	public void write(ByteBuffer buffer){
+		buffer.asLongBuffer().put(fitness);
+		buffer.position(buffer.position() + fitness.length * 8);
+		buffer.asIntBuffer().put(order);
+		buffer.position(buffer.position() + order.length * 4);
+		buffer.asIntBuffer().put(free);
+		buffer.position(buffer.position() + free.length * 4);
+		buffer.put(types);
+		buffer.put(keys);
+		buffer.asLongBuffer().put(ticks);
+		buffer.position(buffer.position() + ticks.length * 8);
+	}
+
+	/**
+	 * Read the population's state written by write (same size, spare slots and genes).
+	 * The fitness is recalculated against this population's original track, the saved
+	 * fitness is skipped.
+	 * @param buffer
+	 */
+	public void read(ByteBuffer buffer){
+		buffer.position(buffer.position() + fitness.length * 8);
+		buffer.asIntBuffer().get(order);
+		buffer.position(buffer.position() + order.length * 4);
+		buffer.asIntBuffer().get(free);
+		buffer.position(buffer.position() + free.length * 4);
+		buffer.get(types);
+		buffer.get(keys);
+		buffer.asLongBuffer().get(ticks);
+		buffer.position(buffer.position() + ticks.length * 8);
+		for(int i = 0; i < size + spare; i++){
+			calculateFitness(i);
+			calculateFingerprint(i);
+		}
+		if(wrong != null)
+			setGuided(true);
+		calculateStats();
+		countFingerprints();
+	}
+
+	public int getSize(){
+		return size;
+	}
+
+	public int getSpare(){
+		return spare;
+	}
+
+	/**
+	 * @param i	Offspring number (0..spare-1)
+	 * @return free slot of the offspring
+	 */
+	public int getOffspring(int i){
+		return free[i];
+	}
+
+	public int getGenes(){
+		return genes;
+	}
+
+	public long getFitness(int ind){
+		return fitness[ind];
+	}
+
+	/**
+	 * @param rank	Position in the population (0 is the best)
+	 * @return individual at that rank
+	 */
+	public int getIndividual(int rank){
+		return order[rank];
+	}
+
+	/**
+	 * @param rank	Position in the population (0 is the best)
+	 * @return fitness of the individual at that rank
+	 */
+	public long getRankFitness(int rank){
+		return fitness[order[rank]];
+	}
+
+	/**
+	 * @return best individual
+	 */
+	public int getBest(){
+		return order[0];
+	}
+
+	/**
+	 * @return worst individual
+	 */
+	public int getWorst(){
+		return order[size - 1];
+	}
+
+	public MIDIEvoTrack getOriginal(){
+		return original;
+	}
+
+	/**
+	 * @return message type of every gene (slot * genes + locus, shared: don't change it)
+	 */
+	byte[] getTypes(){
+		return types;
+	}
+
+	/**
+	 * @return key of every gene (slot * genes + locus, shared: don't change it)
+	 */
+	byte[] getKeys(){
+		return keys;
+	}
+
+	/**
+	 * @return tick of every gene (slot * genes + locus, shared: don't change it)
+	 */
+	long[] getTicks(){
+		return ticks;
+	}
+}
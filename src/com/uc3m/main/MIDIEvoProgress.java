@@ -0,0 +1,69 @@
+package com.uc3m.main;
+
+/**
+ * Progress of an evolution run, written by the evolution thread and read by the GUI.
+ * The values are primitives protected by a sequence number (seqlock): the writer
+ * never blocks and never allocates, the reader retries if a write was in progress.
+ * Only one thread can write.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoProgress {
+
+	private volatile long sequence = 0;	//Odd while a write is in progress
+	private volatile long best;			//Volatile so the reads can't move out of the sequence check
+	private volatile long worst;
+	private volatile int generation;
+	private volatile double mrate;
+
+	/**
+	 * Publish the state after a generation (evolution thread)
+	 * @param best	Best fitness
+	 * @param worst	Worst fitness
+	 * @param generation	Current generation
+	 * @param mrate	Mutation rate
+	 */
+	public void publish(long best, long worst, int generation, double mrate){
+		long seq = sequence;
+		sequence = seq + 1;
+		this.best = best;
+		this.worst = worst;
+		this.generation = generation;
+		this.mrate = mrate;
+		sequence = seq + 2;
+	}
+
+	/**
+	 * Read a consistent copy of the state (any thread)
+	 * @param snapshot	Where to copy the state
+	 * @return sequence number of the copy (changes on every publish)
+	 */
+	public long read(MIDIEvoProgress snapshot){
+		long seq;
+		do{
+			seq = sequence;
+			snapshot.best = best;
+			snapshot.worst = worst;
+			snapshot.generation = generation;
+			snapshot.mrate = mrate;
+		}while((seq & 1) != 0 || seq != sequence);
+		return seq;
+	}
+
+	public long getBest() {
+		return best;
+	}
+
+	public long getWorst() {
+		return worst;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public double getMRate() {
+		return mrate;
+	}
+}
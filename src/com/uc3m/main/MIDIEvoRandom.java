@@ -0,0 +1,182 @@
+package com.uc3m.main;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Seeded random number generator (SplitMix64).
+ * Every draw is a pure function of the seed, so a run started with the same
+ * seed draws the same numbers. Sub-streams for worker tasks are derived
+ * with split(), which takes one value of this stream as the seed of the new one.
+ *
+ * Coin flips are drawn in bulk: one nextLong() gives the next 64 booleans.
+ *
+ * Not thread safe, every thread (or task) must use its own instance.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoRandom {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;	//Odd constant added to the state on every draw
+	private static final double DOUBLE_UNIT = 0x1.0p-53;			//1.0 / (1L << 53)
+	private static final AtomicLong seeder = new AtomicLong(
+			mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+	private long state;		//Current state
+	private long bits;		//Buffered coin flips
+	private int bitCount;	//Number of buffered coin flips left
+
+	/**
+	 * Constructor: Creates a generator with a new (time based) seed
+	 */
+	public MIDIEvoRandom(){
+		this(newSeed());
+	}
+
+	/**
+	 * Constructor: Creates a generator from a seed
+	 * @param seed
+	 */
+	public MIDIEvoRandom(long seed){
+		setSeed(seed);
+	}
+
+	/**
+	 * @return a new seed, different on every call
+	 */
+	public static long newSeed(){
+		return mix64(seeder.getAndAdd(GOLDEN_GAMMA));
+	}
+
+	/**
+	 * Restart the stream from a seed
+	 * @param seed
+	 */
+	public void setSeed(long seed){
+		this.state = seed;
+		this.bits = 0;
+		this.bitCount = 0;
+	}
+
+	/**
+	 * Create a new independent stream seeded from this one
+	 * @return sub-stream
+	 */
+	public MIDIEvoRandom split(){
+		return new MIDIEvoRandom(nextLong());
+	}
+
+	/**
+	 * @return 64 random bits
+	 */
+	public long nextLong(){
+		return mix64(state += GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @param bound	Upper bound (exclusive), must be positive
+	 * @return random value between 0 and bound - 1
+	 */
+	public int nextInt(int bound){
+		int r = (int) (nextLong() >>> 32);
+		int m = bound - 1;
+		if((bound & m) == 0)
+			return r & m;
+		//Reject the values that would make the result biased
+		for(int u = r >>> 1; u + m - (r = u % bound) < 0; u = (int) (nextLong() >>> 33));
+		return r;
+	}
+
+	/**
+	 * @param origin	Lower bound (inclusive)
+	 * @param bound	Upper bound (exclusive)
+	 * @return random value between origin and bound - 1
+	 */
+	public int nextInt(int origin, int bound){
+		return origin + nextInt(bound - origin);
+	}
+
+	/**
+	 * @param bound	Upper bound (exclusive), must be positive
+	 * @return random value between 0 and bound - 1
+	 */
+	public long nextLong(long bound){
+		long r = nextLong();
+		long m = bound - 1;
+		if((bound & m) == 0L)
+			return r & m;
+		//Reject the values that would make the result biased
+		for(long u = r >>> 1; u + m - (r = u % bound) < 0L; u = nextLong() >>> 1);
+		return r;
+	}
+
+	/**
+	 * @return random value between 0.0 (inclusive) and 1.0 (exclusive)
+	 */
+	public double nextDouble(){
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	/**
+	 * Geometric skip: number of failed trials before the next success
+	 * of a trial with probability p (one draw instead of one per trial)
+	 * @param logq	Math.log(1 - p), negative
+	 * @return random number of trials to skip (Integer.MAX_VALUE if bigger)
+	 */
+	public int nextGeometric(double logq){
+		double skip = Math.floor(Math.log(1.0 - nextDouble()) / logq);
+		return skip >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) skip;
+	}
+
+	/**
+	 * Coin flip, 64 flips are taken from every nextLong()
+	 * @return random boolean
+	 */
+	public boolean nextBoolean(){
+		if(bitCount == 0){
+			bits = nextLong();
+			bitCount = 64;
+		}
+		boolean bit = (bits & 1L) != 0;
+		bits >>>= 1;
+		bitCount--;
+		return bit;
+	}
+
+	/**
+	 * @return current state (to save the stream in a checkpoint)
+	 */
+	public long getState(){
+		return state;
+	}
+
+	public long getBits(){
+		return bits;
+	}
+
+	public int getBitCount(){
+		return bitCount;
+	}
+
+	/**
+	 * Continue a saved stream
+	 * @param state	Saved state
+	 * @param bits	Saved coin flips
+	 * @param bitCount	Number of saved coin flips left
+	 */
+	public void setState(long state, long bits, int bitCount){
+		this.state = state;
+		this.bits = bits;
+		this.bitCount = bitCount;
+	}
+
+	/**
+	 * SplitMix64 finalizer
+	 * @param z
+	 * @return mixed value
+	 */
+	static long mix64(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,203 @@
+package com.uc3m.main;
+
+import java.util.Locale;
+
+/**
+ * Parent selection.
+ * The population is always sorted by fitness (rank 0 is the best individual), so
+ * the selection methods only draw ranks: no fitness is compared and every pick is
+ * O(1) (a tournament of size k is O(k) for small k). The selected individuals
+ * (slots) are stored in an int array, nothing is allocated.
+ *
+ * Every method can select a part of the array (from..to), so the selection can be
+ * split in chunks, each one with its own random stream.
+ *
+ * @author antonio
+ *
+ */
+public abstract class MIDIEvoSelection {
+
+	/**
+	 * Select individuals
+	 * @param population	Sorted population
+	 * @param selection	Selected individuals (all the positions of the generation)
+	 * @param from	First position to select
+	 * @param to	Last position to select (exclusive)
+	 * @param random	Random stream
+	 */
+	public abstract void select(MIDIEvoPopulation population, int[] selection, int from, int to,
+			MIDIEvoRandom random);
+
+	/**
+	 * Tournament selection: the best of size random individuals
+	 * @param size	Tournament size (3 is the classic MIDIEvo tournament)
+	 * @return selection
+	 */
+	public static MIDIEvoSelection tournament(int size){
+		return new Tournament(size);
+	}
+
+	/**
+	 * Linear ranking selection: the probability of an individual decreases linearly
+	 * with its rank, from pressure/n (best) to (2 - pressure)/n (worst)
+	 * @param pressure	Selection pressure (1.0 = uniform .. 2.0)
+	 * @return selection
+	 */
+	public static MIDIEvoSelection linearRanking(double pressure){
+		return new LinearRanking(pressure, false);
+	}
+
+	/**
+	 * Stochastic universal sampling over the linear ranking probabilities:
+	 * equally spaced pointers, so every individual is selected a number of times
+	 * as close as possible to its expected number. The pointers select the
+	 * individuals in rank order, so they are shuffled before they are paired.
+	 * @param pressure	Selection pressure (1.0 = uniform .. 2.0)
+	 * @return selection
+	 */
+	public static MIDIEvoSelection sus(double pressure){
+		return new LinearRanking(pressure, true);
+	}
+
+	/**
+	 * Truncation selection: uniform selection among the best individuals
+	 * @param fraction	Part of the population that can be selected (0..1]
+	 * @return selection
+	 */
+	public static MIDIEvoSelection truncation(double fraction){
+		return new Truncation(fraction);
+	}
+
+	/**
+	 * Parse a selection method
+	 * @param selection	tournament[:size], ranking[:pressure], sus[:pressure] or truncation[:fraction]
+	 * @return selection
+	 */
+	public static MIDIEvoSelection parse(String selection){
+		String[] parts = selection.split(":");
+		String name = parts[0].trim().toLowerCase(Locale.ROOT);
+		boolean hasValue = parts.length > 1;
+		switch(name){
+		case "tournament": return tournament(hasValue ? Integer.parseInt(parts[1].trim()) : 3);
+		case "ranking": return linearRanking(hasValue ? Double.parseDouble(parts[1].trim()) : 1.5);
+		case "sus": return sus(hasValue ? Double.parseDouble(parts[1].trim()) : 1.5);
+		case "truncation": return truncation(hasValue ? Double.parseDouble(parts[1].trim()) : 0.5);
+		}
+		throw new IllegalArgumentException("Unknown selection: "+selection);
+	}
+
+	/**
+	 * Tournament of size random ranks with replacement, the lowest rank wins.
+	 * Big tournaments draw the lowest rank directly: the minimum of size uniform
+	 * values is 1 - U^(1/size), which gives exactly the same distribution.
+	 */
+	private static class Tournament extends MIDIEvoSelection {
+
+		private static final int MAX_LOOP = 8;	//Bigger tournaments use the closed form
+		private int size;
+
+		public Tournament(int size){
+			this.size = Math.max(1, size);
+		}
+
+		@Override
+		public void select(MIDIEvoPopulation population, int[] selection, int from, int to,
+				MIDIEvoRandom random) {
+			int n = population.getSize();
+			for(int i = from; i < to; i++){
+				int best;
+				if(size <= MAX_LOOP){
+					best = random.nextInt(n);
+					for(int k = 1; k < size; k++)
+						best = Math.min(best, random.nextInt(n));
+				}else{
+					double x = 1.0 - Math.pow(1.0 - random.nextDouble(), 1.0 / size);
+					best = Math.min(n - 1, (int) (x * n));
+				}
+				selection[i] = population.getIndividual(best);
+			}
+		}
+
+		@Override
+		public String toString(){
+			return "tournament:"+size;
+		}
+	}
+
+	/**
+	 * Linear ranking, drawn with the inverse of its cumulative distribution
+	 * F(x) = pressure * x - (pressure - 1) * x^2 (x = rank / n).
+	 * With SUS the pointers are (offset + i) / count instead of random values and
+	 * the part of the selection is shuffled (Fisher-Yates): otherwise the parents
+	 * recombined together (2i, 2i+1) would always be neighbouring ranks.
+	 */
+	private static class LinearRanking extends MIDIEvoSelection {
+
+		private double pressure;
+		private boolean universal;	//Stochastic universal sampling
+
+		public LinearRanking(double pressure, boolean universal){
+			this.pressure = Math.max(1.0, Math.min(2.0, pressure));
+			this.universal = universal;
+		}
+
+		@Override
+		public void select(MIDIEvoPopulation population, int[] selection, int from, int to,
+				MIDIEvoRandom random) {
+			int n = population.getSize();
+			double offset = universal ? random.nextDouble() : 0;	//SUS: every chunk moves its pointers
+			double spacing = 1.0 / selection.length;
+			for(int i = from; i < to; i++){
+				double u = universal ? (offset + i) * spacing : random.nextDouble();
+				int rank = Math.min(n - 1, (int) (inverse(u) * n));
+				selection[i] = population.getIndividual(rank);
+			}
+			if(universal){
+				for(int i = to - 1; i > from; i--){
+					int j = from + random.nextInt(i - from + 1);
+					int swap = selection[i];
+					selection[i] = selection[j];
+					selection[j] = swap;
+				}
+			}
+		}
+
+		private double inverse(double u){
+			if(pressure == 1.0)
+				return u;
+			double a = pressure - 1.0;
+			return (pressure - Math.sqrt(pressure * pressure - 4.0 * a * u)) / (2.0 * a);
+		}
+
+		@Override
+		public String toString(){
+			return (universal ? "sus:" : "ranking:")+pressure;
+		}
+	}
+
+	/**
+	 * Uniform selection among the best ceil(fraction * n) ranks
+	 */
+	private static class Truncation extends MIDIEvoSelection {
+
+		private double fraction;
+
+		public Truncation(double fraction){
+			this.fraction = Math.max(0.0, Math.min(1.0, fraction));
+		}
+
+		@Override
+		public void select(MIDIEvoPopulation population, int[] selection, int from, int to,
+				MIDIEvoRandom random) {
+			int n = population.getSize();
+			int best = Math.max(1, Math.min(n, (int) Math.ceil(fraction * n)));
+			for(int i = from; i < to; i++)
+				selection[i] = population.getIndividual(random.nextInt(best));
+		}
+
+		@Override
+		public String toString(){
+			return "truncation:"+fraction;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.uc3m.main;
+
+/**
+ * Immutable copy of an individual, taken between generations by the evolution thread
+ * so other threads (player, exporter) can use it while the population keeps changing.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoSnapshot {
+
+	private final MIDIEvoTrack original;	//Original track (messages that are not notes)
+	private final int generation;			//Generation of the copy
+	private final long fitness;
+	private final byte[] types;
+	private final byte[] keys;
+	private final long[] ticks;
+
+	/**
+	 * Constructor: Copy an individual (call it from the evolution thread, between generations)
+	 * @param population
+	 * @param ind	Individual
+	 * @param generation	Current generation
+	 */
+	public MIDIEvoSnapshot(MIDIEvoPopulation population, int ind, int generation){
+		int genes = population.getGenes();
+		int base = ind * genes;
+		this.original = population.getOriginal();
+		this.generation = generation;
+		this.fitness = population.getFitness(ind);
+		this.types = new byte[genes];
+		this.keys = new byte[genes];
+		this.ticks = new long[genes];
+		System.arraycopy(population.getTypes(), base, types, 0, genes);
+		System.arraycopy(population.getKeys(), base, keys, 0, genes);
+		System.arraycopy(population.getTicks(), base, ticks, 0, genes);
+	}
+
+	public MIDIEvoTrack getOriginal(){
+		return original;
+	}
+
+	public int getGeneration(){
+		return generation;
+	}
+
+	public long getFitness(){
+		return fitness;
+	}
+
+	public int getGenes(){
+		return types.length;
+	}
+
+	byte[] getTypes(){
+		return types;
+	}
+
+	byte[] getKeys(){
+		return keys;
+	}
+
+	long[] getTicks(){
+		return ticks;
+	}
+}
@@ -0,0 +1,202 @@
+package com.uc3m.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Whole song evolution.
+ * Builds one original MIDIEvoTrack (part) for every track of a Sequence, or for
+ * every channel of the tracks that have notes in different channels, and evolves
+ * all of them at the same time in a fixed pool of threads (longest parts first).
+ * The best individual of every part is put back in its track, together with the
+ * track's original messages (meta events, program changes...).
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoSong {
+
+	private Sequence sequence;			//Source sequence
+	private ArrayList<Part> parts;		//Parts of every track (in track order)
+	private int threads;
+	private volatile boolean stop = false;
+
+	/**
+	 * Constructor: Split the sequence in parts
+	 * @param sequence	Source sequence
+	 * @param populationSize	Size of the population of every part
+	 * @param tournamentRounds	Tournament rounds per generation of every part
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param strategy	STRATEGY_NONE, STRATEGY_AMR or STRATEGY_ROG
+	 * @param threads	Number of parts evolved at the same time
+	 * @param seed	Run seed
+	 */
+	public MIDIEvoSong(Sequence sequence, int populationSize, int tournamentRounds,
+			int mode, int strategy, int threads, long seed){
+		this.sequence = sequence;
+		this.threads = Math.max(1, threads);
+		this.parts = new ArrayList<Part>();
+		MIDIEvoRandom random = new MIDIEvoRandom(seed);
+		Track[] tracks = sequence.getTracks();
+		for(int t = 0; t < tracks.length; t++){
+			MIDIEvoTrack whole = new MIDIEvoTrack(tracks[t]);
+			if(whole.isHasDifferentChannels()){
+				//One part for every channel, the first one keeps the rest of the messages
+				boolean others = true;
+				boolean[] channels = MIDIEvoTrack.noteChannels(tracks[t]);
+				for(int c = 0; c < channels.length; c++){
+					if(channels[c]){
+						parts.add(new Part(t, new MIDIEvoTrack(tracks[t], c, others),
+								"track-"+t+"-channel-"+c));
+						others = false;
+					}
+				}
+				if(others)
+					parts.add(new Part(t, whole, "track-"+t));
+			}else{
+				parts.add(new Part(t, whole, "track-"+t));
+			}
+		}
+		for(Part part : parts){
+			long partSeed = random.nextLong();
+			if(part.original.getMaxSize() > 0){
+				part.engine = new MIDIEvoEngine(part.original, populationSize, tournamentRounds,
+						mode, strategy, 1, partSeed);
+				part.engine.setName(part.name);
+			}
+		}
+	}
+
+	/**
+	 * Evolve every part in the pool and wait for all of them
+	 * @param maxGenerations	Max number of generations of every part
+	 * @param listener	Progress listener of every part (called from the pool threads, can be null)
+	 * @return number of generations done by the part that did most
+	 */
+	public int run(final int maxGenerations, final MIDIEvoListener listener){
+		ArrayList<Part> jobs = new ArrayList<Part>();
+		for(Part part : parts)
+			if(part.engine != null)
+				jobs.add(part);
+		//Longest parts first so the song takes about as long as its longest part
+		Collections.sort(jobs, new Comparator<Part>(){
+			@Override
+			public int compare(Part a, Part b) {
+				return Integer.compare(b.original.getMaxSize(), a.original.getMaxSize());
+			}
+		});
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, jobs.size())));
+		ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(final Part part : jobs){
+			results.add(pool.submit(new Callable<Integer>(){
+				@Override
+				public Integer call() {
+					if(stop)
+						return 0;
+					part.engine.initialize();
+					if(stop)
+						return 0;
+					return part.engine.run(maxGenerations, listener);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		int generations = 0;
+		for(Future<Integer> result : results){
+			try {
+				generations = Math.max(generations, result.get());
+			} catch (InterruptedException e) {
+				stop();
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		return generations;
+	}
+
+	/**
+	 * Stop every part (after its current generation)
+	 */
+	public void stop(){
+		stop = true;
+		for(Part part : parts)
+			if(part.engine != null)
+				part.engine.stop();
+	}
+
+	/**
+	 * Create a Sequence with the best individual of every part
+	 * @return evolved sequence (same division and resolution as the source)
+	 * @throws InvalidMidiDataException
+	 */
+	public Sequence toSequence() throws InvalidMidiDataException{
+		Sequence outSequence = new Sequence(sequence.getDivisionType(), sequence.getResolution());
+		Track[] tracks = new Track[sequence.getTracks().length];
+		for(int t = 0; t < tracks.length; t++)
+			tracks[t] = outSequence.createTrack();
+		for(Part part : parts){
+			MIDIEvoTrack best = part.original;
+			if(part.engine != null && part.engine.getPopulation() != null){
+				MIDIEvoPopulation population = part.engine.getPopulation();
+				best = population.toTrack(population.getBest());
+			}
+			best.convertToTrack(tracks[part.track]);
+		}
+		return outSequence;
+	}
+
+	/**
+	 * @return sum of the best fitness of every part
+	 */
+	public long getBestFitness(){
+		long fitness = 0;
+		for(Part part : parts){
+			if(part.engine != null && part.engine.getPopulation() != null){
+				MIDIEvoPopulation population = part.engine.getPopulation();
+				fitness += population.getFitness(population.getBest());
+			}
+		}
+		return fitness;
+	}
+
+	/**
+	 * @return engines of the parts with notes
+	 */
+	public ArrayList<MIDIEvoEngine> getEngines(){
+		ArrayList<MIDIEvoEngine> engines = new ArrayList<MIDIEvoEngine>();
+		for(Part part : parts)
+			if(part.engine != null)
+				engines.add(part.engine);
+		return engines;
+	}
+
+	/**
+	 * Notes of one track (or one channel of a track)
+	 */
+	private static class Part {
+
+		private int track;				//Index of the track in the sequence
+		private MIDIEvoTrack original;	//Original notes (and messages)
+		private MIDIEvoEngine engine;	//null if there are no notes to evolve
+		private String name;
+
+		public Part(int track, MIDIEvoTrack original, String name){
+			this.track = track;
+			this.original = original;
+			this.name = name;
+		}
+	}
+}
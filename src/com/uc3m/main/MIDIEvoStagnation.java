@@ -0,0 +1,224 @@
+package com.uc3m.main;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Convergence tracking of an evolution run.
+ * Keeps the best fitness of the last window generations and the diversity of
+ * the population (fraction of different genomes, from the fingerprint multiset
+ * of the population).
+ * The run is stagnated when the best fitness improved less than minImprovement
+ * (fraction of the best fitness window generations ago) or when the diversity
+ * is lower than minDiversity. The engine then takes the configured action:
+ * STAGNATION_STOP, STAGNATION_HYPERMUTATION or STAGNATION_RESEED.
+ *
+ * Also records when the best fitness was found (time to solution) and how many
+ * generations were done after it (wasted generations). Every update is O(1).
+ *
+ * A run that continues the last generation tracked (another call to engine.run,
+ * or a run resumed from a checkpoint) keeps the history.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoStagnation {
+
+	private int window;					//Generations to compare
+	private int action;					//Action on stagnation
+	private double minImprovement = 0;	//Min improvement over the window (fraction)
+	private double minDiversity = 0;	//Min fraction of different genomes
+	private double hyperRate = 0.5;		//Mutation rate of a hypermutation burst
+	private int hyperGenerations = 50;	//Generations of a hypermutation burst
+	private double reseedFraction = 0.5;	//Worst part of the population created again
+	private long[] history;				//Best fitness of the last generations (ring)
+	private int count;					//Generations in the history
+	private long startTime;				//Start of the run (nanoseconds)
+	private long bestFitness;			//Best fitness found
+	private int bestGeneration;			//Generation of the best fitness
+	private long bestTime;				//Time of the best fitness (nanoseconds)
+	private int generation;				//Last generation
+	private double diversity;			//Last diversity
+	private int stagnations = 0;		//Number of stagnations found
+	private boolean started = false;	//Some run was tracked (or read from a checkpoint)
+
+	/**
+	 * Constructor
+	 * @param window	Generations without improvement to detect a stagnation
+	 * @param action	STAGNATION_NONE, STAGNATION_STOP, STAGNATION_HYPERMUTATION or STAGNATION_RESEED
+	 */
+	public MIDIEvoStagnation(int window, int action){
+		this.window = Math.max(1, window);
+		this.action = action;
+		this.history = new long[this.window];
+	}
+
+	/**
+	 * Start tracking a run (the history is kept if the run continues the last generation tracked)
+	 * @param generation	First generation
+	 * @param best	Best fitness of the population
+	 */
+	public void start(int generation, long best){
+		long now = System.nanoTime();
+		if(started && generation == this.generation){
+			//Times of another process (checkpoint) are meaningless here
+			if(startTime == 0){
+				startTime = now;
+				bestTime = now;
+			}
+			return;
+		}
+		this.started = true;
+		this.startTime = now;
+		this.bestFitness = best;
+		this.bestGeneration = generation;
+		this.bestTime = startTime;
+		this.generation = generation;
+		this.count = 0;
+	}
+
+	/**
+	 * Track a generation
+	 * @param generation	Number of generations done
+	 * @param best	Best fitness
+	 * @param diversity	Fraction of different genomes in the population (0..1)
+	 * @return true if the run is stagnated (the history starts again)
+	 */
+	public boolean update(int generation, long best, double diversity){
+		this.generation = generation;
+		if(best < bestFitness){
+			bestFitness = best;
+			bestGeneration = generation;
+			bestTime = System.nanoTime();
+		}
+		this.diversity = diversity;
+
+		int slot = generation % window;
+		long old = history[slot];
+		history[slot] = best;
+		if(count < window){
+			count++;
+			return false;
+		}
+		//old is the best fitness window generations ago
+		if(old - best <= minImprovement * old || diversity < minDiversity){
+			stagnations++;
+			count = 0;
+			return true;
+		}
+		return false;
+	}
+
+	public int getAction(){
+		return action;
+	}
+
+	public int getWindow(){
+		return window;
+	}
+
+	public double getMinImprovement(){
+		return minImprovement;
+	}
+
+	public void setMinImprovement(double minImprovement){
+		this.minImprovement = minImprovement;
+	}
+
+	public double getMinDiversity(){
+		return minDiversity;
+	}
+
+	public void setMinDiversity(double minDiversity){
+		this.minDiversity = minDiversity;
+	}
+
+	public double getHyperRate(){
+		return hyperRate;
+	}
+
+	public int getHyperGenerations(){
+		return hyperGenerations;
+	}
+
+	/**
+	 * @param rate	Mutation rate of a hypermutation burst
+	 * @param generations	Generations of a hypermutation burst
+	 */
+	public void setHypermutation(double rate, int generations){
+		this.hyperRate = rate;
+		this.hyperGenerations = Math.max(1, generations);
+	}
+
+	public double getReseedFraction(){
+		return reseedFraction;
+	}
+
+	public void setReseedFraction(double reseedFraction){
+		this.reseedFraction = reseedFraction;
+	}
+
+	public long getBestFitness(){
+		return bestFitness;
+	}
+
+	public int getBestGeneration(){
+		return bestGeneration;
+	}
+
+	/**
+	 * @return nanoseconds from the start until the best fitness was found
+	 */
+	public long getTimeToBest(){
+		return bestTime - startTime;
+	}
+
+	/**
+	 * @return generations done after the best fitness was found
+	 */
+	public int getWastedGenerations(){
+		return generation - bestGeneration;
+	}
+
+	public double getDiversity(){
+		return diversity;
+	}
+
+	public int getStagnations(){
+		return stagnations;
+	}
+
+	/**
+	 * @return number of bytes of the tracking state (see write)
+	 */
+	public int getStateSize(){
+		return 4 * 4 + 8 + 8 + window * 8;
+	}
+
+	/**
+	 * Write the tracking state (history, best fitness and stagnations) to a buffer
+	 * @param buffer	Buffer with getStateSize() bytes left
+	 */
+	public void write(ByteBuffer buffer){
+		buffer.putInt(count).putInt(generation).putInt(bestGeneration).putInt(stagnations)
+			.putLong(bestFitness).putDouble(diversity);
+		for(long best : history)
+			buffer.putLong(best);
+	}
+
+	/**
+	 * Read the tracking state written by write (same window); the next run continues it
+	 * @param buffer
+	 */
+	public void read(ByteBuffer buffer){
+		count = buffer.getInt();
+		generation = buffer.getInt();
+		bestGeneration = buffer.getInt();
+		stagnations = buffer.getInt();
+		bestFitness = buffer.getLong();
+		diversity = buffer.getDouble();
+		for(int i = 0; i < window; i++)
+			history[i] = buffer.getLong();
+		started = true;
+		startTime = 0;
+	}
+}
@@ -1,9 +1,7 @@
 package com.uc3m.main;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.concurrent.ThreadLocalRandom;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MetaMessage;
@@ -35,9 +33,10 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	private static final int MUTATE_NOTE = 0;	//Mutation mode: Command
 	private static final int MUTATE_KEY = 1;	//Mutation mode: Key
 	private static final int MUTATE_TICK = 2;	//Mutation mode: Tick
-	private static final int DEFAULT_VELOCITY = 80;	//Default velocity (How hard a key is pressed .. Volume)
+	static final int DEFAULT_VELOCITY = 80;	//Default velocity (How hard a key is pressed .. Volume)
 	private final int[] commands = {ShortMessage.NOTE_OFF, ShortMessage.NOTE_ON}; //Command types
-	private BigInteger totalFitness = BigInteger.valueOf(0);	//Sum of all short messages fitness
+	private long totalFitness = 0;		//Sum of all short messages fitness
+	private MIDIEvoMidiFile midiFile;	//Packed notes and raw messages of the original track (can be null)
 
 	/**
 	 * Constructor: Creates a base track (No messages)
@@ -64,6 +63,25 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	public MIDIEvoTrack(MIDIEvoTrack met){
 		this(met.getMaxSize(), met.getMaxTick(), met.getChannel(), 
 				met.getOriginalMessages(), met.getOriginalMessagesTicks());
+		this.midiFile = met.midiFile;
+	}
+
+	/**
+	 * Constructor: Create a MIDIEvoTrack from a track read with MIDIEvoMidiFile.
+	 * The notes stay in the packed arrays of the file (the SimplifiedShortMessages are
+	 * only created if they are requested) and the rest of the messages stay as raw bytes
+	 * until the track is converted to a MIDI Track.
+	 * @param midiFile
+	 */
+	public MIDIEvoTrack(MIDIEvoMidiFile midiFile){
+		this.midiFile = midiFile;
+		this.maxSize = midiFile.getNotes();
+		this.maxTick = midiFile.getMaxTick();
+		this.channel = midiFile.getChannel();
+		this.hasDifferentChannels = midiFile.isHasDifferentChannels();
+		this.hasTempo = midiFile.isHasTempo();
+		this.originalMessages = new ArrayList<MidiMessage>();
+		this.originalMessagesTicks = new ArrayList<Long>();
 	}
 	
 	/**
@@ -71,8 +89,18 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	 * @param track
 	 */
 	public MIDIEvoTrack(Track track) {
+		this(track, -1, true);
+	}
+	
+	/**
+	 * Constructor: Create a MIDIEvoTrack from the notes of one channel of a source MIDI Track
+	 * @param track
+	 * @param channel	Channel of the notes (-1 for every channel)
+	 * @param others	Keep the rest of the track's messages (not notes of the other channels)
+	 */
+	public MIDIEvoTrack(Track track, int channel, boolean others) {
 		try {
-			preprocessTrack(track);
+			preprocessTrack(track, channel, others);
 		} catch (InvalidMidiDataException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -86,15 +114,14 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	 * Select a random Key (MIN_KEY..MAX_KEY)
 	 * Select a random Tick (0..MaxTick)
 	 * Instantiate a new SimplifiedShortMessage with those values and add it to the track's list.
+	 * @param track	Original track to calculate the fitness (can be null)
+	 * @param random	Random stream of the caller (seeded run, not created per call)
 	 */
-	public void createRandom(){
-		createRandom(null);
-	}
-	public void createRandom(MIDIEvoTrack track){
+	public void createRandom(MIDIEvoTrack track, MIDIEvoRandom random){
 		for (int i=0; i < maxSize; i++) {
-			int command = commands[ThreadLocalRandom.current().nextInt(0, 2)];
-			int key = ThreadLocalRandom.current().nextInt(MIN_KEY, MAX_KEY + 1);
-			long tick = ThreadLocalRandom.current().nextLong(maxTick + 1);
+			int command = commands[random.nextBoolean() ? 1 : 0];
+			int key = random.nextInt(MIN_KEY, MAX_KEY + 1);
+			long tick = random.nextLong(maxTick + 1);
 			
 			SimplifiedShortMessage ssm = new SimplifiedShortMessage(command, key, tick, channel);
 			if(track != null)
@@ -114,7 +141,24 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	 */
 	public void preprocessTrack(Track track) 
 			throws InvalidMidiDataException, IOException{
+		preprocessTrack(track, -1, true);
+	}
+	
+	/**
+	 * Generate a MIDIEvoTrack form the notes of one channel of a MIDI Track.
+	 * Notes (NOTE_ON, NOTE_OFF) of the other channels are ignored.
+	 * 
+	 * @param track
+	 * @param channel	Channel of the notes (-1 for every channel)
+	 * @param others	Keep the rest of the messages in the originalMessages array list
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	public void preprocessTrack(Track track, int channel, boolean others) 
+			throws InvalidMidiDataException, IOException{
 		
+		if(channel != -1)
+			this.channel = channel;
 		simplifiedShortMessages = new ArrayList<SimplifiedShortMessage>();
 		originalMessages = new ArrayList<MidiMessage>();
 		originalMessagesTicks = new ArrayList<Long>();
@@ -127,28 +171,34 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 			
 			//If the event is a short message
 			if (message instanceof ShortMessage) {
+				ShortMessage sm = (ShortMessage) message;
+                boolean isNote = sm.getCommand() == ShortMessage.NOTE_ON 
+                		|| sm.getCommand() == ShortMessage.NOTE_OFF;
+                //Skip the notes of the other channels (and the rest of the messages if not needed)
+                if(isNote && channel != -1 && sm.getChannel() != channel)
+                	continue;
+                if(!isNote && !others)
+                	continue;
 				if(tick > maxTick)
 					maxTick = tick;
-				ShortMessage sm = (ShortMessage) message;
-                int channel = sm.getChannel();
+                int smChannel = sm.getChannel();
                 if(this.channel == -1)
-                	this.channel = channel;
-                else if(this.channel != channel)
+                	this.channel = smChannel;
+                else if(this.channel != smChannel)
                 	this.hasDifferentChannels = true;
 
                 int key = sm.getData1();
                 
-                if (sm.getCommand() == ShortMessage.NOTE_ON 
-                		|| sm.getCommand() == ShortMessage.NOTE_OFF) {
+                if (isNote) {
                 	
-                	SimplifiedShortMessage se = new SimplifiedShortMessage(sm.getCommand(), key, tick, channel);
+                	SimplifiedShortMessage se = new SimplifiedShortMessage(sm.getCommand(), key, tick, smChannel);
                 	simplifiedShortMessages.add(se);
                 }else{
                 	originalMessages.add(message);
             		originalMessagesTicks.add(tick);
                 }
 				
-			}else{
+			}else if(others){
 				//Checking for a Tempo Message
 				if(message instanceof MetaMessage){
 					MetaMessage metaMessage = (MetaMessage) message;
@@ -171,27 +221,27 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	 * @param originalTrack
 	 * @return
 	 */
-	public BigInteger calculateFitness(){
+	public long calculateFitness(){
 		return calculateFitness(null, false);
 	}
 	
-	public BigInteger calculateFitness(MIDIEvoTrack originalTrack){
+	public long calculateFitness(MIDIEvoTrack originalTrack){
 		return calculateFitness(originalTrack, true);
 	}
 	
-	public BigInteger calculateFitness(MIDIEvoTrack originalTrack, boolean full){
+	public long calculateFitness(MIDIEvoTrack originalTrack, boolean full){
 
-		BigInteger fitness = BigInteger.valueOf(0);
+		long fitness = 0;
 		for (int i=0; i < maxSize; i++) {
 			long noteFitness;
 			if(full){
-				noteFitness = simplifiedShortMessages.get(i).
+				noteFitness = getSimplifiedShortMessages().get(i).
 					calculateFitness(originalTrack.getSimplifiedShortMessages().get(i));
 			}else{
-				noteFitness = simplifiedShortMessages.get(i).getFitness();
+				noteFitness = getSimplifiedShortMessages().get(i).getFitness();
 			}
 			
-			fitness = fitness.add(BigInteger.valueOf(noteFitness));
+			fitness += noteFitness;
 		}
 		
 		//Update and return the fitness
@@ -206,11 +256,30 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	public void copyTicks(MIDIEvoTrack origTrack){
 		
 		for(int i=0; i<origTrack.getSize();i++){
-			simplifiedShortMessages.get(i).setTick(
+			getSimplifiedShortMessages().get(i).setTick(
 					origTrack.getSimplifiedShortMessages().get(i).getTick());
 		}
 	}
 	
+	/**
+	 * Find the channels that have notes (NOTE_ON, NOTE_OFF) in a MIDI Track
+	 * @param track
+	 * @return for every channel (0..15) true if it has notes
+	 */
+	public static boolean[] noteChannels(Track track){
+		boolean[] channels = new boolean[16];
+		for (int i=0; i < track.size(); i++) {
+			MidiMessage message = track.get(i).getMessage();
+			if (message instanceof ShortMessage) {
+				ShortMessage sm = (ShortMessage) message;
+				if (sm.getCommand() == ShortMessage.NOTE_ON 
+                		|| sm.getCommand() == ShortMessage.NOTE_OFF)
+					channels[sm.getChannel()] = true;
+			}
+		}
+		return channels;
+	}
+	
 	/**
 	 * Create a MIDI Track from the MIDIEvoTrack
 	 * (Reverse process)
@@ -218,18 +287,47 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	 * @return
 	 */
 	public Track convertToTrack(Sequence sequence){
-		Track track = sequence.createTrack();
+		return convertToTrack(sequence.createTrack());
+	}
+	
+	/**
+	 * Add the MIDIEvoTrack's messages to an existing MIDI Track
+	 * @param track
+	 * @return
+	 */
+	public Track convertToTrack(Track track){
+		return convertToTrack(track, 0);
+	}
+	
+	/**
+	 * Add the MIDIEvoTrack's messages to an existing MIDI Track, moved offset ticks
+	 * (the MIDIEvoTrack is a window of a longer track)
+	 * @param track
+	 * @param offset	Tick of the start of the window
+	 * @return
+	 */
+	public Track convertToTrack(Track track, long offset){
+		//Raw messages of the original file
+		if(midiFile != null){
+			for(int j = 0; j < midiFile.getOthers(); j++){
+				try {
+					track.add(new MidiEvent(midiFile.getOtherMessage(j), midiFile.getOtherTicks()[j] + offset));
+				} catch (InvalidMidiDataException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 		int i = 0;
 		//Add every other message.
 		for (MidiMessage ev : originalMessages) {
-			MidiEvent event = new MidiEvent(ev, originalMessagesTicks.get(i));
+			MidiEvent event = new MidiEvent(ev, originalMessagesTicks.get(i) + offset);
 			i++;
 			track.add(event);
 		}
 		
 		//Create a MIDI ShortMessage from every SimplifiedShortMessage
-		for (SimplifiedShortMessage ssm : simplifiedShortMessages) {
-			MidiEvent event = createNoteEvent(ssm.getType(), ssm.getKey(), DEFAULT_VELOCITY, ssm.getTick(), ssm.getChannel());
+		for (SimplifiedShortMessage ssm : getSimplifiedShortMessages()) {
+			MidiEvent event = createNoteEvent(ssm.getType(), ssm.getKey(), DEFAULT_VELOCITY, ssm.getTick() + offset, ssm.getChannel());
 			track.add(event);
 		}
 		
@@ -270,38 +368,44 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	 * Then for every SimplifiedShortMessage flip a coin (Random 0..1)
 	 * if 1 then change the selected part (Note, Key or Tick) for a randomly generated new one.
 	 * if 0 do nothing to that simplifiedShortMessage
+	 * The total fitness is updated with the difference of every mutated message's fitness.
 	 * @param mode
+	 * @param mrate	Mutation rate
+	 * @param originalTrack
+	 * @param random	Random stream of the caller (seeded run, not created per call)
 	 */
-	public void mutation(int mode, double mrate, MIDIEvoTrack originalTrack){
+	public void mutation(int mode, double mrate, MIDIEvoTrack originalTrack, MIDIEvoRandom random){
 		
 		int type = 0;
 		if(mode == MIDIEvo.EASY_MODE)
-			type = ThreadLocalRandom.current().nextInt(0, 2);
+			type = random.nextInt(0, 2);
 		else
-			type = ThreadLocalRandom.current().nextInt(0, 3);
-		//boolean isMutable = ThreadLocalRandom.current().nextInt(0, 5) < 6;
-		int ii = 0;
-		//if(isMutable){
-			for (SimplifiedShortMessage ssm : simplifiedShortMessages) {
-				
-				double mutationPercentage = ThreadLocalRandom.current().nextDouble();
-	
-				if(mutationPercentage < mrate){
-					if(type == MUTATE_NOTE){
-						int command = commands[ThreadLocalRandom.current().nextInt(0, 2)];
-						ssm.setType(command);
-					}else if(type == MUTATE_KEY){
-						int key = ThreadLocalRandom.current().nextInt(MIN_KEY, MAX_KEY + 1);
-						ssm.setKey(key);
-					}else if(type==MUTATE_TICK && mode==MIDIEvo.HARD_MODE){
-						long tick = ThreadLocalRandom.current().nextLong(maxTick + 1);
-						ssm.setTick(tick);
-					}
-					ssm.calculateFitness(originalTrack.getSimplifiedShortMessages().get(ii));
-				}
-				ii++;
+			type = random.nextInt(0, 3);
+		if(mrate <= 0)
+			return;
+		//Jump to the next mutated message (geometric skip) instead of a draw for every message
+		double logq = Math.log1p(-Math.min(mrate, 1.0));
+		int size = getSimplifiedShortMessages().size();
+		int ii = -1;
+		while(true){
+			int skip = mrate >= 1 ? 0 : random.nextGeometric(logq);
+			if(skip >= size - 1 - ii)
+				break;
+			ii += skip + 1;
+			SimplifiedShortMessage ssm = getSimplifiedShortMessages().get(ii);
+			if(type == MUTATE_NOTE){
+				int command = commands[random.nextBoolean() ? 1 : 0];
+				ssm.setType(command);
+			}else if(type == MUTATE_KEY){
+				int key = random.nextInt(MIN_KEY, MAX_KEY + 1);
+				ssm.setKey(key);
+			}else if(type==MUTATE_TICK && mode==MIDIEvo.HARD_MODE){
+				long tick = random.nextLong(maxTick + 1);
+				ssm.setTick(tick);
 			}
-		//}
+			totalFitness -= ssm.getFitness();
+			totalFitness += ssm.calculateFitness(originalTrack.getSimplifiedShortMessages().get(ii));
+		}
 	}
 	
 	public void setOriginalEvents(ArrayList<SimplifiedShortMessage> originalEvents) {
@@ -329,7 +433,7 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	}
 	
 	public int getSize(){
-		return simplifiedShortMessages.size();
+		return getSimplifiedShortMessages().size();
 	}
 
 	public int getMaxSize(){
@@ -349,9 +453,23 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	}
 
 	public ArrayList<SimplifiedShortMessage> getSimplifiedShortMessages() {
+		if(simplifiedShortMessages == null && midiFile != null){
+			//Notes of the packed arrays of the original file
+			simplifiedShortMessages = new ArrayList<SimplifiedShortMessage>(maxSize);
+			for(int i = 0; i < maxSize; i++)
+				simplifiedShortMessages.add(new SimplifiedShortMessage(midiFile.getTypes()[i] & 0xFF,
+						midiFile.getKeys()[i], midiFile.getTicks()[i], midiFile.getChannels()[i]));
+		}
 		return simplifiedShortMessages;
 	}
 
+	/**
+	 * @return packed notes and raw messages of the original track (null if it was read from a MIDI Track)
+	 */
+	public MIDIEvoMidiFile getMidiFile() {
+		return midiFile;
+	}
+
 	public void setSimplifiedShortMessages(ArrayList<SimplifiedShortMessage> simplifiedShortMessages) {
 		this.simplifiedShortMessages = simplifiedShortMessages;
 	}
@@ -372,11 +490,11 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 		this.originalMessages = originalMessages;
 	}
 
-	public BigInteger getTotalFitness() {
+	public long getTotalFitness() {
 		return totalFitness;
 	}
 
-	public void setTotalFitness(BigInteger totalFitness) {
+	public void setTotalFitness(long totalFitness) {
 		this.totalFitness = totalFitness;
 	}
 	
@@ -394,12 +512,12 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	@Override
 	public int compareTo(MIDIEvoTrack midievotrack) {
 		
-		return totalFitness.compareTo(midievotrack.getTotalFitness());
+		return Long.compare(totalFitness, midievotrack.getTotalFitness());
 	}
 	
 	public boolean isEqualTo(MIDIEvoTrack midievotrack) {
 		int ii = 0;
-		for (SimplifiedShortMessage ssm : simplifiedShortMessages) {
+		for (SimplifiedShortMessage ssm : getSimplifiedShortMessages()) {
 			
 			if(ssm.getKey() != midievotrack.getSimplifiedShortMessages().get(ii).getKey()){
 				return false;
@@ -419,7 +537,7 @@ public class MIDIEvoTrack implements Comparable<MIDIEvoTrack>{
 	@Override
 	public String toString(){
 		String output = "";
-		for (SimplifiedShortMessage ssm : simplifiedShortMessages) {
+		for (SimplifiedShortMessage ssm : getSimplifiedShortMessages()) {
 			output += "Type = "+ssm.getType()+"\t";
 			output += "Key = "+ssm.getKey()+"\t";
 			output += "Tick = "+ssm.getTick()+"\t";
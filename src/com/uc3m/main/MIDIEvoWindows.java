@@ -0,0 +1,249 @@
+package com.uc3m.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Windowed evolution of very long tracks.
+ * The track is read with MIDIEvoMidiFile (notes in packed arrays, the rest of the
+ * events as raw bytes of the mapped file). Its notes are cut in windows of some
+ * bars (4 beats of getResolution() ticks), and every window is evolved as a short
+ * original track (ticks relative to the start of the window) with its own small
+ * population. The best individual of every window is copied to the output notes
+ * at the position of the window's notes in the track, and the window is dropped.
+ *
+ * At most maxWindows windows (and their populations) are in memory at the same
+ * time: cutting the track waits until a window finishes, so the memory depends
+ * on the size of the windows and not on the length of the track.
+ *
+ * The output is written with MIDIEvoMidiWriter. The notes of every window keep
+ * their place in the track, so the events are in window order (and at the same
+ * tick, in the order of the genes) whatever window finishes first. The notes of a
+ * window that wasn't evolved (stopped run) are the original ones.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoWindows {
+
+	private MIDIEvoMidiFile midiFile;	//Source track
+	private long windowTicks;			//Ticks of every window
+	private int populationSize;			//Population of every window
+	private int tournamentRounds;
+	private int mode;
+	private int strategy;
+	private int threads;				//Windows evolved at the same time
+	private int maxWindows;				//Windows in memory at the same time
+	private long seed;
+	private MIDIEvoEngineSetup setup;	//Settings of the engine of every window (can be null)
+	private byte[] types;				//Evolved notes (same order as the track)
+	private byte[] keys;
+	private long[] ticks;
+	private byte[] channels;
+	private Set<MIDIEvoEngine> running = Collections.newSetFromMap(new ConcurrentHashMap<MIDIEvoEngine, Boolean>());
+	private volatile boolean stop = false;
+	private int windows = 0;			//Windows evolved
+	private int notes = 0;				//Notes evolved
+	private long generations = 0;		//Generations of every window
+	private long bestFitness = 0;		//Sum of the best fitness of every window
+	public static final int BEATS_PER_BAR = 4;
+
+	/**
+	 * Constructor
+	 * @param midiFile	Track to evolve
+	 * @param bars	Bars of every window
+	 * @param populationSize	Size of the population of every window
+	 * @param tournamentRounds	Tournament rounds per generation of every window
+	 * @param mode	EASY_MODE or HARD_MODE
+	 * @param strategy	STRATEGY_NONE, STRATEGY_AMR or STRATEGY_ROG
+	 * @param threads	Number of windows evolved at the same time
+	 * @param maxWindows	Max number of windows in memory (at least threads)
+	 * @param seed	Run seed
+	 */
+	public MIDIEvoWindows(MIDIEvoMidiFile midiFile, int bars, int populationSize, int tournamentRounds,
+			int mode, int strategy, int threads, int maxWindows, long seed){
+		this.midiFile = midiFile;
+		this.windowTicks = Math.max(1L, (long) bars * BEATS_PER_BAR * midiFile.getResolution());
+		this.populationSize = populationSize;
+		this.tournamentRounds = tournamentRounds;
+		this.mode = mode;
+		this.strategy = strategy;
+		this.threads = Math.max(1, threads);
+		this.maxWindows = Math.max(this.threads, maxWindows);
+		this.seed = seed;
+		int n = midiFile.getNotes();
+		this.types = new byte[n];
+		this.keys = new byte[n];
+		this.ticks = new long[n];
+		this.channels = new byte[n];
+		System.arraycopy(midiFile.getTypes(), 0, types, 0, n);
+		System.arraycopy(midiFile.getKeys(), 0, keys, 0, n);
+		System.arraycopy(midiFile.getTicks(), 0, ticks, 0, n);
+		System.arraycopy(midiFile.getChannels(), 0, channels, 0, n);
+	}
+
+	/**
+	 * @param setup	Settings of the engine of every window (null = engine defaults)
+	 */
+	public void setSetup(MIDIEvoEngineSetup setup){
+		this.setup = setup;
+	}
+
+	/**
+	 * Cut the track in windows and evolve every window in the pool
+	 * @param maxGenerations	Max number of generations of every window
+	 * @param listener	Progress listener of every window (called from the pool threads, can be null)
+	 * @return number of windows
+	 */
+	public int run(final int maxGenerations, final MIDIEvoListener listener){
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Semaphore inMemory = new Semaphore(maxWindows);
+		MIDIEvoRandom random = new MIDIEvoRandom(seed);
+		long[] noteTicks = midiFile.getTicks();
+		int n = midiFile.getNotes();
+		int index = 0;
+		try {
+			int from = 0;
+			while(from < n && !stop){
+				long start = noteTicks[from] - noteTicks[from] % windowTicks;
+				int to = from + 1;
+				while(to < n && noteTicks[to] < start + windowTicks)
+					to++;
+				submit(pool, inMemory, from, to, start, index++, random.nextLong(), maxGenerations, listener);
+				from = to;
+			}
+		} catch (InterruptedException e) {
+			stop();
+			Thread.currentThread().interrupt();
+		}
+		pool.shutdown();
+		try {
+			while(!pool.awaitTermination(1, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			stop();
+			Thread.currentThread().interrupt();
+		}
+		return index;
+	}
+
+	/**
+	 * Evolve one window in the pool (waits while there are maxWindows windows in memory).
+	 * If the window can't be built or the pool rejects it, its place in memory is freed.
+	 * @param from	First note of the window
+	 * @param to	Last note of the window (exclusive)
+	 * @param start	Tick of the start of the window
+	 */
+	private void submit(ExecutorService pool, final Semaphore inMemory, final int from, int to,
+			final long start, int index, long windowSeed, final int maxGenerations,
+			final MIDIEvoListener listener) throws InterruptedException{
+		inMemory.acquire();
+		//The task releases the permit, until it's submitted a failure has to release it
+		try {
+			ArrayList<SimplifiedShortMessage> window = new ArrayList<SimplifiedShortMessage>(to - from);
+			long maxTick = 0;
+			for(int i = from; i < to; i++){
+				window.add(new SimplifiedShortMessage(types[i] & 0xFF, keys[i], ticks[i] - start, channels[i]));
+				maxTick = Math.max(maxTick, ticks[i] - start);
+			}
+			MIDIEvoTrack original = new MIDIEvoTrack(window.size(), maxTick, channels[from],
+					new ArrayList<MidiMessage>(), new ArrayList<Long>());
+			original.setSimplifiedShortMessages(window);
+			final MIDIEvoEngine engine = new MIDIEvoEngine(original, populationSize, tournamentRounds,
+					mode, strategy, 1, windowSeed);
+			engine.setName("window-"+index);
+			if(setup != null)
+				setup.setup(engine);
+			pool.execute(new Runnable(){
+				@Override
+				public void run() {
+					running.add(engine);
+					try {
+						if(stop)
+							return;
+						engine.initialize();
+						if(!stop)
+							engine.run(maxGenerations, listener);
+						finish(engine, from, start);
+					} finally {
+						running.remove(engine);
+						inMemory.release();
+					}
+				}
+			});
+		} catch (RuntimeException | Error e) {
+			inMemory.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Copy the best individual of a window to its notes of the output
+	 * @param engine	Engine of the window
+	 * @param from	First note of the window
+	 * @param start	Tick of the start of the window
+	 */
+	private synchronized void finish(MIDIEvoEngine engine, int from, long start){
+		MIDIEvoPopulation population = engine.getPopulation();
+		int best = population.getBest();
+		int genes = population.getGenes();
+		int base = best * genes;
+		System.arraycopy(population.getTypes(), base, types, from, genes);
+		System.arraycopy(population.getKeys(), base, keys, from, genes);
+		long[] bestTicks = population.getTicks();
+		for(int i = 0; i < genes; i++)
+			ticks[from + i] = start + bestTicks[base + i];
+		windows++;
+		notes += genes;
+		generations += engine.getGeneration();
+		bestFitness += population.getFitness(best);
+	}
+
+	/**
+	 * Stop cutting the track and every running window (after its current generation)
+	 */
+	public void stop(){
+		stop = true;
+		for(MIDIEvoEngine engine : running)
+			engine.stop();
+	}
+
+	/**
+	 * Write the evolved track (with the rest of the events of the source track)
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void write(File file) throws IOException{
+		MIDIEvoMidiWriter.write(new MIDIEvoMidiWriter().encode(new MIDIEvoTrack(midiFile), types, keys, ticks,
+				channels, 0, types.length, midiFile.getDivisionType(), midiFile.getResolution()), file);
+	}
+
+	public long getWindowTicks(){
+		return windowTicks;
+	}
+
+	public synchronized int getWindows(){
+		return windows;
+	}
+
+	public synchronized int getNotes(){
+		return notes;
+	}
+
+	public synchronized long getGenerations(){
+		return generations;
+	}
+
+	public synchronized long getBestFitness(){
+		return bestFitness;
+	}
+}
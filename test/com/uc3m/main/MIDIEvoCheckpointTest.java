@@ -0,0 +1,149 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * A run resumed from a checkpoint continues exactly like the run that wasn't stopped
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoCheckpointTest {
+
+	private static MIDIEvoEngine engine(MIDIEvoTrack original, int strategy, long seed){
+		return new MIDIEvoEngine(original, 200, 100, MIDIEvo.HARD_MODE, strategy, 1, seed);
+	}
+
+	/**
+	 * Engine with every setting saved in the checkpoint away from its default
+	 */
+	private static MIDIEvoEngine configured(MIDIEvoTrack original, int strategy, long seed){
+		MIDIEvoEngine engine = engine(original, strategy, seed);
+		engine.setMutationTest(5);
+		engine.setSelection(MIDIEvoSelection.sus(1.8));
+		engine.setMutationFields(MIDIEvo.MUTATE_FIELD_KEY | MIDIEvo.MUTATE_FIELD_TICK);
+		engine.setGuidedMutation(true);
+		engine.setUniqueReplacement(true);
+		MIDIEvoStagnation stagnation = new MIDIEvoStagnation(4, MIDIEvo.STAGNATION_HYPERMUTATION);
+		stagnation.setMinImprovement(0.05);
+		stagnation.setHypermutation(0.4, 3);
+		engine.setStagnation(stagnation);
+		return engine;
+	}
+
+	/**
+	 * Write a checkpoint of a new population
+	 */
+	private static File checkpoint(MIDIEvoEngine engine) throws IOException{
+		File file = File.createTempFile("midievo-test", ".ckpt");
+		file.deleteOnExit();
+		engine.initialize();
+		MIDIEvoCheckpoint checkpoint = new MIDIEvoCheckpoint(file);
+		checkpoint.write(engine);
+		checkpoint.close();
+		return file;
+	}
+
+	/**
+	 * Resume must fail, and leave the engine at generation 0
+	 */
+	private static void assertRejected(MIDIEvoEngine engine, File file) throws IOException{
+		MIDIEvoCheckpoint checkpoint = new MIDIEvoCheckpoint(file);
+		try {
+			engine.resume(checkpoint);
+			fail("Checkpoint of another run accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Checkpoint of another run"));
+		} finally {
+			checkpoint.close();
+		}
+		assertEquals(0, engine.getGeneration());
+	}
+
+	@Test
+	public void resumedRunIsIdentical() throws Exception{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(60, 1).getTracks()[1]);
+		File file = File.createTempFile("midievo-test", ".ckpt");
+		file.deleteOnExit();
+
+		//Reference run: saves the checkpoint at generation 30 and goes on to 60
+		MIDIEvoEngine reference = configured(original, MIDIEvo.STRATEGY_AMR, 7);
+		reference.initialize();
+		MIDIEvoCheckpoint checkpoint = new MIDIEvoCheckpoint(file);
+		reference.setCheckpoint(checkpoint, 10);
+		reference.run(30, null);
+		checkpoint.close();
+		reference.setCheckpoint(null, 1);
+		reference.run(60, null);
+
+		MIDIEvoEngine resumed = configured(original, MIDIEvo.STRATEGY_AMR, 99);
+		checkpoint = new MIDIEvoCheckpoint(file);
+		assertTrue(resumed.resume(checkpoint));
+		checkpoint.close();
+		assertEquals(30, resumed.getGeneration());
+		assertEquals(7, resumed.getSeed());
+		resumed.run(60, null);
+
+		assertEquals(reference.getGeneration(), resumed.getGeneration());
+		assertEquals(reference.getMRate(), resumed.getMRate(), 0);
+		assertTrue(reference.getStagnation().getStagnations() > 1);
+		assertEquals(reference.getStagnation().getStagnations(), resumed.getStagnation().getStagnations());
+		assertEquals(reference.getStagnation().getBestGeneration(), resumed.getStagnation().getBestGeneration());
+		assertArrayEquals(MIDIEvoTestData.state(reference.getPopulation()),
+				MIDIEvoTestData.state(resumed.getPopulation()));
+	}
+
+	@Test
+	public void rejectsAnotherPopulationSize() throws Exception{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(20, 1).getTracks()[1]);
+		File file = checkpoint(engine(original, MIDIEvo.STRATEGY_NONE, 1));
+		assertRejected(new MIDIEvoEngine(original, 300, 100, MIDIEvo.HARD_MODE, MIDIEvo.STRATEGY_NONE, 1, 1), file);
+	}
+
+	@Test
+	public void rejectsAnotherTrack() throws Exception{
+		//Same number of notes, other keys
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(20, 1).getTracks()[1]);
+		MIDIEvoTrack other = new MIDIEvoTrack(MIDIEvoTestData.sequence(20, 2).getTracks()[1]);
+		assertEquals(original.getMaxSize(), other.getMaxSize());
+		File file = checkpoint(configured(original, MIDIEvo.STRATEGY_AMR, 1));
+		assertRejected(configured(other, MIDIEvo.STRATEGY_AMR, 1), file);
+	}
+
+	@Test
+	public void rejectsAnotherConfiguration() throws Exception{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(20, 1).getTracks()[1]);
+		File file = checkpoint(configured(original, MIDIEvo.STRATEGY_AMR, 1));
+
+		assertRejected(engine(original, MIDIEvo.STRATEGY_AMR, 1), file);
+		assertRejected(configured(original, MIDIEvo.STRATEGY_ROG, 1), file);
+		MIDIEvoEngine engine = configured(original, MIDIEvo.STRATEGY_AMR, 1);
+		engine.setSelection(MIDIEvoSelection.sus(1.5));
+		assertRejected(engine, file);
+		engine = configured(original, MIDIEvo.STRATEGY_AMR, 1);
+		engine.setMutationFields(MIDIEvo.MUTATE_FIELD_RANDOM);
+		assertRejected(engine, file);
+		engine = configured(original, MIDIEvo.STRATEGY_AMR, 1);
+		engine.setGuidedMutation(false);
+		assertRejected(engine, file);
+		engine = configured(original, MIDIEvo.STRATEGY_AMR, 1);
+		engine.getStagnation().setHypermutation(0.5, 3);
+		assertRejected(engine, file);
+		engine = configured(original, MIDIEvo.STRATEGY_AMR, 1);
+		engine.setStagnation(null);
+		assertRejected(engine, file);
+
+		engine = configured(original, MIDIEvo.STRATEGY_AMR, 1);
+		MIDIEvoCheckpoint checkpoint = new MIDIEvoCheckpoint(file);
+		assertTrue(engine.resume(checkpoint));
+		checkpoint.close();
+	}
+}
@@ -0,0 +1,40 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * The same seed reproduces the same run with any number of threads
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoEngineTest {
+
+	private static MIDIEvoEngine run(MIDIEvoTrack original, int strategy, int threads){
+		//Population and rounds big enough to split every phase in several chunks
+		MIDIEvoEngine engine = new MIDIEvoEngine(original, 1000, 600, MIDIEvo.HARD_MODE, strategy, threads, 42);
+		engine.setMutationTest(10);
+		engine.initialize();
+		engine.run(40, null);
+		engine.shutdown();
+		return engine;
+	}
+
+	@Test
+	public void sameRunWithAnyNumberOfThreads() throws Exception{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(80, 1).getTracks()[1]);
+		for(int strategy : new int[]{MIDIEvo.STRATEGY_NONE, MIDIEvo.STRATEGY_AMR, MIDIEvo.STRATEGY_ROG}){
+			MIDIEvoEngine single = run(original, strategy, 1);
+			for(int threads : new int[]{2, 4}){
+				MIDIEvoEngine parallel = run(original, strategy, threads);
+				assertEquals(single.getGeneration(), parallel.getGeneration());
+				assertEquals(single.getMRate(), parallel.getMRate(), 0);
+				assertArrayEquals("strategy "+strategy+", "+threads+" threads",
+						MIDIEvoTestData.state(single.getPopulation()), MIDIEvoTestData.state(parallel.getPopulation()));
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+/**
+ * The default kernel (vector if it's available) gives the same gene fitness and total as
+ * the scalar kernel, also when the tick distances don't fit an int.
+ * Run with --add-modules jdk.incubator.vector and the vector folder compiled to test the vector kernel.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoFitnessKernelTest {
+
+	@Test
+	public void sameFitnessAsTheScalarKernel() throws Exception{
+		//101 notes (blocks of 8 and the scalar tail), ticks up to 6e9
+		Track track = new Sequence(Sequence.PPQ, 24).createTrack();
+		for(int i = 0; i < 101; i++){
+			ShortMessage message = new ShortMessage();
+			message.setMessage(i % 2 == 0 ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF, 0, 40 + i % 50, 80);
+			track.add(new MidiEvent(message, i * 60000000L));
+		}
+		MIDIEvoTrack original = new MIDIEvoTrack(track);
+		MIDIEvoPopulation scalar = new MIDIEvoPopulation(16, original);
+		scalar.setFitnessKernel(MIDIEvoFitnessKernel.scalar());
+		MIDIEvoPopulation kernel = new MIDIEvoPopulation(16, original);
+		kernel.setFitnessKernel(MIDIEvoFitnessKernel.get());
+		MIDIEvoRandom random = new MIDIEvoRandom(11);
+		for(int ind = 0; ind < 16; ind++){
+			scalar.createRandom(ind, MIDIEvo.HARD_MODE, random);
+			kernel.copy(ind, scalar, ind);
+			String name = kernel.getFitnessKernel().getName()+", individual "+ind;
+			assertEquals(name, scalar.calculateFitness(ind), kernel.calculateFitness(ind));
+			ArrayList<SimplifiedShortMessage> expected = scalar.toTrack(ind).getSimplifiedShortMessages();
+			ArrayList<SimplifiedShortMessage> actual = kernel.toTrack(ind).getSimplifiedShortMessages();
+			for(int i = 0; i < expected.size(); i++)
+				assertEquals(name+", gene "+i, expected.get(i).getFitness(), actual.get(i).getFitness());
+		}
+	}
+}
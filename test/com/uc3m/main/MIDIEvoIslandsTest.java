@@ -0,0 +1,85 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The same seed reproduces the same island run in barrier mode whatever the timing of the
+ * island threads, and the run stops when an island finds fitness zero
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoIslandsTest {
+
+	private static final int MAX_GENERATIONS = 1000000;
+
+	private static MIDIEvoIslands run(MIDIEvoTrack original, final String slowIsland){
+		MIDIEvoIslands islands = new MIDIEvoIslands(original, 3, 200, 100, MIDIEvo.HARD_MODE,
+				new int[]{MIDIEvo.STRATEGY_NONE, MIDIEvo.STRATEGY_AMR, MIDIEvo.STRATEGY_ROG},
+				new double[]{0.01, 0.05}, 5, 10, 42);
+		islands.setBarrier(true);
+		islands.run(40, new MIDIEvoListener(){
+			@Override
+			public void generation(MIDIEvoEngine engine, int generation) {
+				//Delay one island so the others run ahead of it between migrations
+				if(engine.getName().equals(slowIsland) && generation % 3 == 0){
+					try {
+						Thread.sleep(2);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+			@Override
+			public void mutationRateChanged(MIDIEvoEngine engine) {
+			}
+
+			@Override
+			public void stagnation(MIDIEvoEngine engine, MIDIEvoStagnation stagnation) {
+			}
+		});
+		return islands;
+	}
+
+	/**
+	 * Run islands on a short track until one finds fitness zero
+	 * @return generations of the island that did most
+	 */
+	private static int solve(int migrationInterval, int migrants, boolean barrier) throws Exception{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(4, 1).getTracks()[1]);
+		MIDIEvoIslands islands = new MIDIEvoIslands(original, 3, 50, 20, MIDIEvo.EASY_MODE,
+				new int[]{MIDIEvo.STRATEGY_NONE}, new double[]{0.1}, migrationInterval, migrants, 5);
+		islands.setBarrier(barrier);
+		int generations = islands.run(MAX_GENERATIONS, null);
+		MIDIEvoPopulation best = islands.getBestIsland().getPopulation();
+		assertEquals(0, best.getFitness(best.getBest()));
+		return generations;
+	}
+
+	@Test
+	public void stopsWhenAnIslandSolvesTheTrack() throws Exception{
+		//No migration, a migration interval longer than the run, lock-free and barrier migrations
+		assertTrue(solve(1, 0, false) < MAX_GENERATIONS);
+		assertTrue(solve(2 * MAX_GENERATIONS, 5, false) < MAX_GENERATIONS);
+		assertTrue(solve(1, 5, false) < MAX_GENERATIONS);
+		assertTrue(solve(1, 5, true) < MAX_GENERATIONS);
+	}
+
+	@Test
+	public void sameRunWithAnyTiming() throws Exception{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(80, 1).getTracks()[1]);
+		MIDIEvoEngine[] first = run(original, "island-0").getIslands();
+		MIDIEvoEngine[] second = run(original, "island-2").getIslands();
+		for(int i = 0; i < first.length; i++){
+			assertEquals(first[i].getGeneration(), second[i].getGeneration());
+			assertEquals(first[i].getMRate(), second[i].getMRate(), 0);
+			assertArrayEquals("island "+i, MIDIEvoTestData.state(first[i].getPopulation()),
+					MIDIEvoTestData.state(second[i].getPopulation()));
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+import org.junit.Test;
+
+/**
+ * MIDIEvoMidiFile (reader) against javax.sound.midi
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoMidiFileTest {
+
+	@Test
+	public void readsTheSameNotesAsJavax() throws Exception{
+		Sequence sequence = MIDIEvoTestData.sequence(200, 1);
+		File file = MIDIEvoTestData.write(sequence);
+		MIDIEvoMidiFile midiFile = MIDIEvoMidiFile.read(file, 1);
+		MIDIEvoTrack javax = new MIDIEvoTrack(MidiSystem.getSequence(file).getTracks()[1]);
+
+		assertEquals(Sequence.PPQ, midiFile.getDivisionType(), 0);
+		assertEquals(24, midiFile.getResolution());
+		assertEquals(2, midiFile.getTracks());
+		assertEquals(javax.getMaxSize(), midiFile.getNotes());
+		assertEquals(javax.getMaxTick(), midiFile.getMaxTick());
+		assertEquals(javax.getChannel(), midiFile.getChannel());
+		ArrayList<SimplifiedShortMessage> ssms = javax.getSimplifiedShortMessages();
+		for(int i = 0; i < ssms.size(); i++){
+			assertEquals(ssms.get(i).getType(), midiFile.getTypes()[i] & 0xFF);
+			assertEquals(ssms.get(i).getKey(), midiFile.getKeys()[i]);
+			assertEquals(ssms.get(i).getTick(), midiFile.getTicks()[i]);
+		}
+		//Program change, system exclusive and end of track
+		assertEquals(3, midiFile.getOthers());
+		assertEquals(javax.getOriginalMessages().size(), midiFile.getOthers());
+		for(int i = 0; i < midiFile.getOthers(); i++){
+			assertArrayEquals(javax.getOriginalMessages().get(i).getMessage(), midiFile.getOtherMessage(i).getMessage());
+			assertEquals(javax.getOriginalMessagesTicks().get(i).longValue(), midiFile.getOtherTicks()[i]);
+		}
+	}
+
+	@Test(expected = InvalidMidiDataException.class)
+	public void rejectsAMissingTrack() throws Exception{
+		MIDIEvoMidiFile.read(MIDIEvoTestData.write(MIDIEvoTestData.sequence(10, 1)), 2);
+	}
+}
@@ -0,0 +1,81 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+/**
+ * MIDIEvoMidiWriter against javax.sound.midi and round trip with MIDIEvoMidiFile
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoMidiWriterTest {
+
+	@Test
+	public void writesTheSameEventsAsConvertToTrack() throws Exception{
+		File file = MIDIEvoTestData.write(MIDIEvoTestData.sequence(200, 2));
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoMidiFile.read(file, 1));
+		MIDIEvoPopulation population = new MIDIEvoPopulation(4, original);
+		MIDIEvoRandom random = new MIDIEvoRandom(3);
+		MIDIEvoMidiWriter writer = new MIDIEvoMidiWriter();
+		for(int ind = 0; ind < 4; ind++){
+			//HARD_MODE: random ticks, so the writer has to sort the notes
+			population.createRandom(ind, MIDIEvo.HARD_MODE, random);
+			Sequence expected = new Sequence(Sequence.PPQ, 24);
+			population.toTrack(ind).convertToTrack(expected);
+
+			ByteBuffer buffer = writer.encode(population, ind, Sequence.PPQ, 24);
+			Sequence written = MidiSystem.getSequence(new ByteArrayInputStream(buffer.array(), 0, buffer.limit()));
+			assertEquals(1, written.getTracks().length);
+			assertSameEvents(expected.getTracks()[0], written.getTracks()[0]);
+		}
+	}
+
+	@Test
+	public void readsBackTheWrittenIndividual() throws Exception{
+		File file = MIDIEvoTestData.write(MIDIEvoTestData.sequence(100, 4));
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoMidiFile.read(file, 1));
+		MIDIEvoPopulation population = new MIDIEvoPopulation(1, original);
+		population.createRandom(0, MIDIEvo.EASY_MODE, new MIDIEvoRandom(5));
+
+		File out = File.createTempFile("midievo-test", ".mid");
+		out.deleteOnExit();
+		new MIDIEvoMidiWriter().write(population, 0, Sequence.PPQ, 24, out);
+		MIDIEvoMidiFile read = MIDIEvoMidiFile.read(out, 0);
+		//EASY_MODE keeps the original timing (sorted), so the genes are read in the same order
+		assertEquals(population.getGenes(), read.getNotes());
+		for(int i = 0; i < read.getNotes(); i++){
+			assertEquals(population.getTypes()[i], read.getTypes()[i]);
+			assertEquals(population.getKeys()[i], read.getKeys()[i]);
+			assertEquals(population.getTicks()[i], read.getTicks()[i]);
+		}
+		assertEquals(original.getMidiFile().getOthers(), read.getOthers());
+		assertTrue(read.getMaxTick() <= original.getMaxTick());
+	}
+
+	private static void assertSameEvents(Track expected, Track actual){
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++){
+			MidiEvent e = expected.get(i);
+			MidiEvent a = actual.get(i);
+			assertEquals("tick of event "+i, e.getTick(), a.getTick());
+			if(e.getMessage() instanceof ShortMessage)
+				assertArrayEquals("event "+i, e.getMessage().getMessage(), a.getMessage().getMessage());
+			else
+				assertEquals("event "+i, e.getMessage().getStatus(), a.getMessage().getStatus());
+		}
+	}
+}
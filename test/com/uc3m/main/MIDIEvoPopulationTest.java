@@ -0,0 +1,73 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+/**
+ * Gene fitness of tick distances that don't fit an int
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoPopulationTest {
+
+	private static final long FAR = 3000000000L;	//Tick beyond Integer.MAX_VALUE
+
+	/**
+	 * @return track with two notes at the start and two notes at tick FAR
+	 * @throws Exception
+	 */
+	private static MIDIEvoTrack farTrack() throws Exception{
+		Track track = new Sequence(Sequence.PPQ, 24).createTrack();
+		long[] ticks = {0, 10, FAR, FAR + 10};
+		for(int i = 0; i < ticks.length; i++){
+			ShortMessage message = new ShortMessage();
+			message.setMessage(i % 2 == 0 ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF, 0, 60, 80);
+			track.add(new MidiEvent(message, ticks[i]));
+		}
+		return new MIDIEvoTrack(track);
+	}
+
+	/**
+	 * @param population
+	 * @param ind
+	 * @return fitness of the individual with every gene saturated at MAX_GENE_FITNESS
+	 */
+	private static long expected(MIDIEvoPopulation population, int ind){
+		ArrayList<SimplifiedShortMessage> target = population.getOriginal().getSimplifiedShortMessages();
+		long total = 0;
+		for(int i = 0; i < population.getGenes(); i++){
+			int pos = ind * population.getGenes() + i;
+			long distance = Math.abs(target.get(i).getType() - (population.getTypes()[pos] & 0xFF))
+					+ Math.abs(target.get(i).getKey() - population.getKeys()[pos])
+					+ Math.abs(target.get(i).getTick() - population.getTicks()[pos]);
+			total += Math.min(distance, MIDIEvoFitnessKernel.MAX_GENE_FITNESS);
+		}
+		return total;
+	}
+
+	@Test
+	public void saturatesTheGeneFitness() throws Exception{
+		MIDIEvoPopulation population = new MIDIEvoPopulation(32, farTrack());
+		MIDIEvoRandom random = new MIDIEvoRandom(7);
+		for(int ind = 0; ind < population.getSize(); ind++){
+			//HARD_MODE: random ticks in 0..FAR+10, most of the genes are far from their target
+			population.createRandom(ind, MIDIEvo.HARD_MODE, random);
+			assertEquals("individual "+ind, expected(population, ind), population.getFitness(ind));
+		}
+		for(int round = 0; round < 20; round++){
+			for(int ind = 0; ind < population.getSize(); ind++){
+				population.mutation(ind, MIDIEvo.HARD_MODE, 0.5, random);
+				assertEquals("individual "+ind+" after mutation", expected(population, ind), population.getFitness(ind));
+			}
+		}
+	}
+}
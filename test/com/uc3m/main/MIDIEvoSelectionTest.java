@@ -0,0 +1,67 @@
+package com.uc3m.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Selection methods: SUS counts and pairing of the parents
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoSelectionTest {
+
+	private static MIDIEvoPopulation population(int size) throws Exception{
+		MIDIEvoTrack original = new MIDIEvoTrack(MIDIEvoTestData.sequence(40, 1).getTracks()[1]);
+		MIDIEvoPopulation population = new MIDIEvoPopulation(size, original);
+		MIDIEvoRandom random = new MIDIEvoRandom(1);
+		for(int i = 0; i < size; i++)
+			population.createRandom(i, MIDIEvo.HARD_MODE, random);
+		population.sort();
+		return population;
+	}
+
+	private static int[] ranks(MIDIEvoPopulation population){
+		int[] rank = new int[population.getSize()];
+		for(int r = 0; r < rank.length; r++)
+			rank[population.getIndividual(r)] = r;
+		return rank;
+	}
+
+	@Test
+	public void susPairsAreNotNeighbouringRanks() throws Exception{
+		MIDIEvoPopulation population = population(1000);
+		int[] rank = ranks(population);
+		int[] selection = new int[600];
+		MIDIEvoRandom random = new MIDIEvoRandom(2);
+		//Two chunks, as the engine splits the selection
+		MIDIEvoSelection sus = MIDIEvoSelection.sus(1.5);
+		sus.select(population, selection, 0, 300, random);
+		sus.select(population, selection, 300, 600, random);
+		int adjacent = 0;
+		for(int i = 0; i < selection.length; i += 2)
+			if(Math.abs(rank[selection[i]] - rank[selection[i + 1]]) <= 1)
+				adjacent++;
+		assertTrue("adjacent pairs: "+adjacent, adjacent < 15);
+	}
+
+	@Test
+	public void susKeepsTheExpectedCounts() throws Exception{
+		MIDIEvoPopulation population = population(100);
+		int[] rank = ranks(population);
+		int[] selection = new int[100];
+		MIDIEvoSelection.sus(2.0).select(population, selection, 0, 100, new MIDIEvoRandom(3));
+		//Pressure 2: the best individual is expected 2 times, the worst 0 times
+		int[] count = new int[100];
+		for(int ind : selection)
+			count[rank[ind]]++;
+		assertTrue(count[0] >= 1 && count[0] <= 2);
+		assertEquals(0, count[99]);
+		int total = 0;
+		for(int c : count)
+			total += c;
+		assertEquals(100, total);
+	}
+}
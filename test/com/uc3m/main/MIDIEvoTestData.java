@@ -0,0 +1,82 @@
+package com.uc3m.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Synthetic MIDI data and state comparisons shared by the tests.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoTestData {
+
+	/**
+	 * Sequence with a conductor track (tempo) and a track with a program change,
+	 * a system exclusive message and notes/2 NOTE_ON/NOTE_OFF pairs (some at the same tick)
+	 * @param notes	Number of notes of the second track
+	 * @param seed
+	 * @return sequence
+	 * @throws InvalidMidiDataException
+	 */
+	public static Sequence sequence(int notes, long seed) throws InvalidMidiDataException{
+		Sequence sequence = new Sequence(Sequence.PPQ, 24);
+		Track conductor = sequence.createTrack();
+		MetaMessage tempo = new MetaMessage();
+		tempo.setMessage(0x51, new byte[]{0x07, (byte) 0xA1, 0x20}, 3);
+		conductor.add(new MidiEvent(tempo, 0));
+
+		Track track = sequence.createTrack();
+		ShortMessage program = new ShortMessage();
+		program.setMessage(ShortMessage.PROGRAM_CHANGE, 2, 5, 0);
+		track.add(new MidiEvent(program, 0));
+		SysexMessage sysex = new SysexMessage();
+		sysex.setMessage(new byte[]{(byte) 0xF0, 0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7}, 6);
+		track.add(new MidiEvent(sysex, 3));
+		MIDIEvoRandom random = new MIDIEvoRandom(seed);
+		for(int i = 0; i < notes; i += 2){
+			int key = random.nextInt(36, 96);
+			long tick = (i / 4) * 12L;
+			ShortMessage on = new ShortMessage();
+			on.setMessage(ShortMessage.NOTE_ON, 2, key, MIDIEvoTrack.DEFAULT_VELOCITY);
+			track.add(new MidiEvent(on, tick));
+			ShortMessage off = new ShortMessage();
+			off.setMessage(ShortMessage.NOTE_OFF, 2, key, MIDIEvoTrack.DEFAULT_VELOCITY);
+			track.add(new MidiEvent(off, tick + 10));
+		}
+		return sequence;
+	}
+
+	/**
+	 * Write a sequence to a temporary file (deleted on exit)
+	 * @param sequence
+	 * @return file
+	 * @throws IOException
+	 */
+	public static File write(Sequence sequence) throws IOException{
+		File file = File.createTempFile("midievo-test", ".mid");
+		file.deleteOnExit();
+		MidiSystem.write(sequence, 1, file);
+		return file;
+	}
+
+	/**
+	 * @param population
+	 * @return state of the population (fitness, rank, free slots and genes)
+	 */
+	public static byte[] state(MIDIEvoPopulation population){
+		ByteBuffer buffer = ByteBuffer.allocate((int) population.getStateSize());
+		population.write(buffer);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,87 @@
+package com.uc3m.main;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Fitness kernel with the Vector API (JDK 17+, incubator module).
+ * The genes are processed in blocks of 8: the 8 types and keys are loaded as one
+ * byte vector and widened to long lanes, so every lane has the type, the key and
+ * the tick of one gene. The gene fitness is saturated at MAX_GENE_FITNESS, narrowed
+ * to int lanes and stored, and the saturated lanes are accumulated in long lanes, so
+ * the total is the sum of the stored values, the same as the scalar kernel. The last
+ * genes use the scalar loop.
+ *
+ * Compile and run:
+ *   javac --add-modules jdk.incubator.vector -cp bin -d bin vector/com/uc3m/main/MIDIEvoVectorKernel.java
+ *   java --add-modules jdk.incubator.vector -cp bin ...
+ *
+ * Loaded by MIDIEvoFitnessKernel.get(), never referenced directly.
+ *
+ * @author antonio
+ *
+ */
+public class MIDIEvoVectorKernel extends MIDIEvoFitnessKernel {
+
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_64;	//8 genes per block
+	private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS =
+			VectorSpecies.of(int.class, VectorShape.forBitSize(LONGS.length() * 32));
+	private static final int PARTS = BYTES.length() / LONGS.length();	//Long vectors per block
+
+	/**
+	 * Constructor
+	 * @throws UnsupportedOperationException if there are less than 2 long lanes
+	 */
+	public MIDIEvoVectorKernel(){
+		if(LONGS.length() < 2 || LONGS.length() > BYTES.length())
+			throw new UnsupportedOperationException("No vector support for "+LONGS);
+	}
+
+	@Override
+	public long fitness(byte[] targetTypes, byte[] targetKeys, long[] targetTicks,
+			byte[] types, byte[] keys, long[] ticks, int base, int[] geneFitness, int genes){
+		LongVector sum = LongVector.zero(LONGS);
+		int lanes = LONGS.length();
+		int bound = BYTES.loopBound(genes);
+		int i = 0;
+		for(; i < bound; i += BYTES.length()){
+			ByteVector tt = ByteVector.fromArray(BYTES, targetTypes, i);
+			ByteVector ty = ByteVector.fromArray(BYTES, types, base + i);
+			ByteVector tk = ByteVector.fromArray(BYTES, targetKeys, i);
+			ByteVector ke = ByteVector.fromArray(BYTES, keys, base + i);
+			for(int p = 0; p < PARTS; p++){
+				int j = i + p * lanes;
+				//Types are unsigned
+				LongVector noteDiff = ((LongVector) tt.convertShape(VectorOperators.B2L, LONGS, p)).and(0xFF)
+						.sub(((LongVector) ty.convertShape(VectorOperators.B2L, LONGS, p)).and(0xFF));
+				LongVector keyDiff = ((LongVector) tk.convertShape(VectorOperators.B2L, LONGS, p))
+						.sub((LongVector) ke.convertShape(VectorOperators.B2L, LONGS, p));
+				LongVector tickDiff = LongVector.fromArray(LONGS, targetTicks, j)
+						.sub(LongVector.fromArray(LONGS, ticks, base + j));
+				LongVector gene = noteDiff.abs().add(keyDiff.abs()).add(tickDiff.abs()).min(MAX_GENE_FITNESS);
+				((IntVector) gene.convertShape(VectorOperators.L2I, INTS, 0)).intoArray(geneFitness, base + j);
+				sum = sum.add(gene);
+			}
+		}
+		long total = sum.reduceLanes(VectorOperators.ADD);
+		for(; i < genes; i++){
+			int pos = base + i;
+			int noteDiff = (targetTypes[i] & 0xFF) - (types[pos] & 0xFF);
+			int keyDiff = targetKeys[i] - keys[pos];
+			long tickDiff = targetTicks[i] - ticks[pos];
+			geneFitness[pos] = geneFitness(Math.abs(noteDiff) + Math.abs(keyDiff) + Math.abs(tickDiff));
+			total += geneFitness[pos];
+		}
+		return total;
+	}
+
+	@Override
+	public String getName(){
+		return "vector:"+LONGS.length()+"x64";
+	}
+}